@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openengsb.labs.delegation.service.internal.BundleHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Bundle;
+
+/**
+ * Measures class discovery and Provided-Classes pattern matching of {@link BundleHandler} on synthetic bundles.
+ *
+ * discoverClasses releases the handler before every invocation, so it measures the first scan of a bundle including
+ * class discovery. getMatchingClasses measures pattern matching against the already discovered classes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BundleScanBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    private int classCount;
+
+    @Param({ "1", "10", "50" })
+    private int patternCount;
+
+    private Bundle bundle;
+    private Collection<String> patterns;
+
+    @Setup(Level.Trial)
+    public void createBundle() {
+        bundle = SyntheticBundles.createBundle(classCount, null);
+        patterns = new ArrayList<String>();
+        for (int i = 0; i < patternCount; i++) {
+            patterns.add(SyntheticBundles.packageFilter(i * 7));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void releaseBundle() {
+        BundleHandler.release(bundle);
+    }
+
+    @Benchmark
+    public Set<String> discoverClasses() {
+        BundleHandler.release(bundle);
+        return BundleHandler.findMatchingClasses(bundle, patterns);
+    }
+
+    @Benchmark
+    public Set<String> getMatchingClasses() {
+        return BundleHandler.findMatchingClasses(bundle, patterns);
+    }
+
+}
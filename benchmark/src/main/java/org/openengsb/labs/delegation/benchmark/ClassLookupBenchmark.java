@@ -0,0 +1,177 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.benchmark;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.framework.Felix;
+import org.openengsb.labs.delegation.service.ClassProvider;
+import org.openengsb.labs.delegation.service.Constants;
+import org.openengsb.labs.delegation.service.DelegatedClassLoadingHelper;
+import org.openengsb.labs.delegation.service.internal.ClassProviderImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Measures lookups through {@link DelegatedClassLoadingHelper} against an embedded Felix framework.
+ *
+ * The registry is filled with providerCount ClassProviders, each providing classesPerProvider synthetic names. One
+ * additional provider in context "foo" with version 1.2.3 provides the {@link LookupTarget}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClassLookupBenchmark {
+
+    public static class LookupTarget {
+    }
+
+    private static final String TARGET = LookupTarget.class.getName();
+    private static final String CONTEXT = "foo";
+    private static final String VERSION = "1.2.3";
+
+    @Param({ "1", "100", "1000" })
+    private int providerCount;
+
+    @Param({ "10" })
+    private int classesPerProvider;
+
+    /**
+     * timeout in milliseconds used for lookups of classes that are not provided at all
+     */
+    @Param({ "1" })
+    private long missTimeout;
+
+    private Felix framework;
+    private File storage;
+    private DelegatedClassLoadingHelper helper;
+    private DelegatedClassLoadingHelper missHelper;
+
+    @Setup(Level.Trial)
+    public void startFramework() throws Exception {
+        storage = File.createTempFile("delegation-benchmark", "");
+        storage.delete();
+        Map<String, Object> configuration = new HashMap<String, Object>();
+        configuration.put(org.osgi.framework.Constants.FRAMEWORK_STORAGE, storage.getAbsolutePath());
+        configuration.put(org.osgi.framework.Constants.FRAMEWORK_STORAGE_CLEAN,
+            org.osgi.framework.Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT);
+        framework = new Felix(configuration);
+        framework.start();
+        BundleContext context = framework.getBundleContext();
+        Bundle systemBundle = context.getBundle();
+        int classIndex = 0;
+        for (int i = 0; i < providerCount; i++) {
+            Set<String> classes = new HashSet<String>();
+            for (int j = 0; j < classesPerProvider; j++) {
+                classes.add(SyntheticBundles.className(classIndex++));
+            }
+            registerProvider(context, systemBundle, classes, "context" + (i % 10), "1.0." + i);
+        }
+        registerProvider(context, systemBundle, new HashSet<String>(Arrays.asList(TARGET)), CONTEXT, VERSION);
+        helper = new DelegatedClassLoadingHelper(context);
+        missHelper = new DelegatedClassLoadingHelper(context);
+        missHelper.setTimeout(missTimeout);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopFramework() throws Exception {
+        framework.stop();
+        framework.waitForStop(10000);
+        deleteRecursively(storage);
+    }
+
+    @Benchmark
+    public Class<?> hit() throws ClassNotFoundException {
+        return helper.loadClass(TARGET);
+    }
+
+    @Benchmark
+    public Class<?> hitInContext() throws ClassNotFoundException {
+        return helper.loadClassInContext(TARGET, CONTEXT);
+    }
+
+    @Benchmark
+    public Class<?> hitWithVersion() throws ClassNotFoundException {
+        return helper.loadClassWithVersion(TARGET, VERSION);
+    }
+
+    @Benchmark
+    public Class<?> hitWithContextAndVersion() throws ClassNotFoundException {
+        return helper.loadClass(TARGET, CONTEXT, VERSION);
+    }
+
+    @Benchmark
+    public Object miss() {
+        try {
+            return missHelper.loadClass(SyntheticBundles.className(-1));
+        } catch (ClassNotFoundException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Object missInContext() {
+        try {
+            return missHelper.loadClassInContext(TARGET, "unknown");
+        } catch (ClassNotFoundException e) {
+            return e;
+        }
+    }
+
+    private static void registerProvider(BundleContext context, Bundle bundle, Set<String> classes,
+            String delegationContext, String version) {
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put(Constants.PROVIDED_CLASSES_KEY, classes);
+        properties.put(Constants.CLASS_VERSION_KEY, version);
+        properties.put(Constants.DELEGATION_CONTEXT_KEY, delegationContext);
+        context.registerService(ClassProvider.class.getName(), new ClassProviderImpl(bundle, classes), properties);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+}
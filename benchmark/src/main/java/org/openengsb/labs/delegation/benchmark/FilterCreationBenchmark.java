@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openengsb.labs.delegation.service.DelegationUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Filter;
+import org.osgi.framework.Version;
+
+/**
+ * Measures the creation of ClassProvider-filters through {@link DelegationUtil}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FilterCreationBenchmark {
+
+    private final String classname = SyntheticBundles.className(42);
+    private final Version version = new Version(1, 2, 3);
+
+    @Benchmark
+    public Filter classname() {
+        return DelegationUtil.createClassProviderFilter(classname);
+    }
+
+    @Benchmark
+    public Filter classnameAndContext() {
+        return DelegationUtil.createClassProviderFilter("foo", classname);
+    }
+
+    @Benchmark
+    public Filter classnameAndVersion() {
+        return DelegationUtil.createClassProviderFilter(classname, version);
+    }
+
+    @Benchmark
+    public Filter classnameContextAndVersion() {
+        return DelegationUtil.createClassProviderFilter("foo", classname, version);
+    }
+
+}
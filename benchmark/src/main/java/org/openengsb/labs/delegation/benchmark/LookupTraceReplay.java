@@ -0,0 +1,238 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.felix.framework.Felix;
+import org.openengsb.labs.delegation.service.ClassProvider;
+import org.openengsb.labs.delegation.service.Constants;
+import org.openengsb.labs.delegation.service.DelegatedClassLoadingHelper;
+import org.openengsb.labs.delegation.service.DelegationEventListener.LookupOutcome;
+import org.openengsb.labs.delegation.service.LookupRejectedException;
+import org.openengsb.labs.delegation.service.internal.LatencyHistogram;
+import org.openengsb.labs.delegation.service.internal.LookupTrace;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Replays a lookup trace recorded with "org.openengsb.labs.delegation.trace.file" against an embedded Felix framework.
+ *
+ * For every context and version that occurs in the trace a synthetic ClassProvider is registered, which provides all
+ * names that were found (or not found by the provider) in the recording. Lookups that timed out are replayed without a
+ * provider, using the recorded duration as timeout unless "delegation.replay.missTimeout" (ms) is set.
+ *
+ * Usage: LookupTraceReplay &lt;trace-file&gt; [speed], where speed 0 (the default) replays as fast as possible and 1
+ * keeps the recorded pacing.
+ */
+public final class LookupTraceReplay {
+
+    public static class ProvidedPlaceholder {
+    }
+
+    private static final class SyntheticProvider implements ClassProvider {
+        private final Set<String> found;
+
+        private SyntheticProvider(Set<String> found) {
+            this.found = found;
+        }
+
+        @Override
+        public Class<?> loadClass(String classname) throws ClassNotFoundException {
+            if (!found.contains(classname)) {
+                throw new ClassNotFoundException(classname);
+            }
+            return ProvidedPlaceholder.class;
+        }
+
+        @Override
+        public Collection<Class<?>> listClasses() {
+            return Collections.<Class<?>> singleton(ProvidedPlaceholder.class);
+        }
+    }
+
+    private static final class Stats {
+        private final LatencyHistogram recorded = new LatencyHistogram();
+        private final LatencyHistogram replayed = new LatencyHistogram();
+        private long mismatches;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: LookupTraceReplay <trace-file> [speed]");
+            System.exit(1);
+        }
+        double speed = args.length > 1 ? Double.parseDouble(args[1]) : 0;
+        Long missTimeout = Long.getLong("delegation.replay.missTimeout");
+        List<LookupTrace.Entry> entries = LookupTrace.read(new FileInputStream(args[0]));
+        Collections.sort(entries, new Comparator<LookupTrace.Entry>() {
+            @Override
+            public int compare(LookupTrace.Entry o1, LookupTrace.Entry o2) {
+                long diff = o1.getOffsetNanos() - o2.getOffsetNanos();
+                return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+            }
+        });
+
+        File storage = File.createTempFile("delegation-replay", "");
+        storage.delete();
+        Map<String, Object> configuration = new HashMap<String, Object>();
+        configuration.put(org.osgi.framework.Constants.FRAMEWORK_STORAGE, storage.getAbsolutePath());
+        configuration.put(org.osgi.framework.Constants.FRAMEWORK_STORAGE_CLEAN,
+            org.osgi.framework.Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT);
+        Felix framework = new Felix(configuration);
+        framework.start();
+        try {
+            BundleContext context = framework.getBundleContext();
+            int providers = registerProviders(context, entries);
+            System.out.printf("replaying %d lookups against %d synthetic providers%n", entries.size(), providers);
+            Map<LookupOutcome, Stats> stats = replay(context, entries, speed, missTimeout);
+            printStats(stats);
+        } finally {
+            framework.stop();
+            framework.waitForStop(10000);
+            deleteRecursively(storage);
+        }
+    }
+
+    private static int registerProviders(BundleContext context, List<LookupTrace.Entry> entries) {
+        Map<List<String>, Set<String>> provided = new HashMap<List<String>, Set<String>>();
+        Map<List<String>, Set<String>> found = new HashMap<List<String>, Set<String>>();
+        for (LookupTrace.Entry entry : entries) {
+            if (entry.getOutcome() != LookupOutcome.FOUND && entry.getOutcome() != LookupOutcome.NOT_FOUND) {
+                continue;
+            }
+            List<String> key = new ArrayList<String>(2);
+            key.add(entry.getContext());
+            key.add(entry.getVersion());
+            if (!provided.containsKey(key)) {
+                provided.put(key, new HashSet<String>());
+                found.put(key, new HashSet<String>());
+            }
+            provided.get(key).add(entry.getName());
+            if (entry.getOutcome() == LookupOutcome.FOUND) {
+                found.get(key).add(entry.getName());
+            }
+        }
+        for (Map.Entry<List<String>, Set<String>> entry : provided.entrySet()) {
+            Hashtable<String, Object> properties = new Hashtable<String, Object>();
+            properties.put(Constants.PROVIDED_CLASSES_KEY, entry.getValue());
+            if (entry.getKey().get(0) != null) {
+                properties.put(Constants.DELEGATION_CONTEXT_KEY, entry.getKey().get(0));
+            }
+            if (entry.getKey().get(1) != null) {
+                properties.put(Constants.CLASS_VERSION_KEY, entry.getKey().get(1));
+            }
+            context.registerService(ClassProvider.class.getName(), new SyntheticProvider(found.get(entry.getKey())),
+                properties);
+        }
+        return provided.size();
+    }
+
+    private static Map<LookupOutcome, Stats> replay(BundleContext context, List<LookupTrace.Entry> entries,
+            double speed, Long missTimeout) {
+        Map<LookupOutcome, Stats> stats = new EnumMap<LookupOutcome, Stats>(LookupOutcome.class);
+        for (LookupOutcome outcome : LookupOutcome.values()) {
+            stats.put(outcome, new Stats());
+        }
+        DelegatedClassLoadingHelper helper = new DelegatedClassLoadingHelper(context);
+        long replayStart = System.nanoTime();
+        long traceStart = entries.isEmpty() ? 0 : entries.get(0).getOffsetNanos();
+        for (LookupTrace.Entry entry : entries) {
+            if (speed > 0) {
+                long due = replayStart + (long) ((entry.getOffsetNanos() - traceStart) / speed);
+                long delay = due - System.nanoTime();
+                if (delay > 0) {
+                    LockSupport.parkNanos(delay);
+                }
+            }
+            if (entry.getOutcome() == LookupOutcome.TIMEOUT) {
+                helper.setTimeout(missTimeout != null ? missTimeout
+                    : Math.max(1, TimeUnit.NANOSECONDS.toMillis(entry.getDurationNanos())));
+            }
+            long start = System.nanoTime();
+            LookupOutcome outcome;
+            try {
+                helper.loadClass(entry.getName(), entry.getContext(), entry.getVersion());
+                outcome = LookupOutcome.FOUND;
+            } catch (ClassNotFoundException e) {
+                outcome = e instanceof LookupRejectedException ? LookupOutcome.REJECTED
+                    : e.getCause() != null ? LookupOutcome.INTERRUPTED
+                    : entry.getOutcome() == LookupOutcome.TIMEOUT ? LookupOutcome.TIMEOUT : LookupOutcome.NOT_FOUND;
+            }
+            long duration = System.nanoTime() - start;
+            if (entry.getOutcome() == LookupOutcome.TIMEOUT) {
+                helper.setTimeout(30000L);
+            }
+            Stats outcomeStats = stats.get(entry.getOutcome());
+            outcomeStats.recorded.record(entry.getDurationNanos());
+            outcomeStats.replayed.record(duration);
+            if (outcome != entry.getOutcome()) {
+                outcomeStats.mismatches++;
+            }
+        }
+        return stats;
+    }
+
+    private static void printStats(Map<LookupOutcome, Stats> stats) {
+        System.out.printf("%-12s %10s %14s %14s %14s %14s %10s%n", "outcome", "lookups", "recorded p50",
+            "replayed p50", "recorded p99", "replayed p99", "mismatches");
+        for (Map.Entry<LookupOutcome, Stats> entry : stats.entrySet()) {
+            Stats outcomeStats = entry.getValue();
+            if (outcomeStats.recorded.getCount() == 0) {
+                continue;
+            }
+            System.out.printf("%-12s %10d %12dus %12dus %12dus %12dus %10d%n", entry.getKey(),
+                outcomeStats.recorded.getCount(),
+                toMicros(outcomeStats.recorded.getPercentileNanos(50)),
+                toMicros(outcomeStats.replayed.getPercentileNanos(50)),
+                toMicros(outcomeStats.recorded.getPercentileNanos(99)),
+                toMicros(outcomeStats.replayed.getPercentileNanos(99)),
+                outcomeStats.mismatches);
+        }
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private LookupTraceReplay() {
+    }
+
+}
@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Version;
+
+/**
+ * Creates stubbed bundles containing a configurable number of (non-existing) class files, so bundle scanning can be
+ * measured without a running framework.
+ */
+public final class SyntheticBundles {
+
+    public static final String CLASS_PREFIX = "org.example.synthetic";
+
+    private static final int CLASSES_PER_PACKAGE = 100;
+    private static final AtomicLong NEXT_ID = new AtomicLong(1000);
+
+    /**
+     * returns the name of the index-th class in a synthetic bundle. Classes are spread over packages of
+     * {@value #CLASSES_PER_PACKAGE} classes each.
+     */
+    public static String className(int index) {
+        return String.format("%s.p%d.Class%d", CLASS_PREFIX, index / CLASSES_PER_PACKAGE, index);
+    }
+
+    /**
+     * returns a package filter as used in the Provided-Classes header, matching the classes of the index-th package
+     */
+    public static String packageFilter(int index) {
+        return String.format("%s.p%d.*", CLASS_PREFIX, index);
+    }
+
+    /**
+     * creates a bundle stub that contains classCount class files and the given manifest headers
+     */
+    public static Bundle createBundle(int classCount, Dictionary<String, String> headers) {
+        final List<URL> entries = new ArrayList<URL>(classCount);
+        for (int i = 0; i < classCount; i++) {
+            entries.add(toURL(className(i)));
+        }
+        final Dictionary<String, String> bundleHeaders =
+            headers == null ? new Hashtable<String, String>() : headers;
+        final long bundleId = NEXT_ID.incrementAndGet();
+        InvocationHandler handler = new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if ("findEntries".equals(name)) {
+                    if (entries.isEmpty()) {
+                        return null;
+                    }
+                    return Collections.enumeration(entries);
+                }
+                if ("getHeaders".equals(name)) {
+                    return bundleHeaders;
+                }
+                if ("getSymbolicName".equals(name)) {
+                    return "synthetic.bundle" + bundleId;
+                }
+                if ("getBundleId".equals(name)) {
+                    return bundleId;
+                }
+                if ("getVersion".equals(name)) {
+                    return new Version(1, 0, 0);
+                }
+                if ("getState".equals(name)) {
+                    return Bundle.ACTIVE;
+                }
+                if ("hashCode".equals(name)) {
+                    return System.identityHashCode(proxy);
+                }
+                if ("equals".equals(name)) {
+                    return proxy == args[0];
+                }
+                if ("toString".equals(name)) {
+                    return "SyntheticBundle[" + bundleId + "]";
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        };
+        return (Bundle) Proxy.newProxyInstance(SyntheticBundles.class.getClassLoader(),
+            new Class<?>[]{ Bundle.class }, handler);
+    }
+
+    private static URL toURL(String className) {
+        try {
+            return new URL("file", null, "/" + className.replace('.', '/') + ".class");
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private SyntheticBundles() {
+    }
+
+}
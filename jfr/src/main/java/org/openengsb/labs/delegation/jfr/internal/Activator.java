@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.jfr.internal;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+import org.openengsb.labs.delegation.service.DelegationEventListener;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registers the {@link JfrDelegationEventListener} while at least one flight recording is running. When nothing is
+ * recorded, no listener is registered and the delegation bundle does not create any events.
+ */
+public class Activator implements BundleActivator, FlightRecorderListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Activator.class);
+
+    private BundleContext bundleContext;
+    private ServiceRegistration listenerRegistration;
+
+    @Override
+    public void start(BundleContext context) {
+        if (!FlightRecorder.isAvailable()) {
+            LOGGER.info("Java Flight Recorder is not available, no delegation events will be recorded");
+            return;
+        }
+        bundleContext = context;
+        FlightRecorder.register(DelegatedLookupEvent.class);
+        FlightRecorder.register(BundleScanPhaseEvent.class);
+        FlightRecorder.addListener(this);
+        updateRegistration();
+    }
+
+    @Override
+    public void stop(BundleContext context) {
+        if (bundleContext == null) {
+            return;
+        }
+        FlightRecorder.removeListener(this);
+        synchronized (this) {
+            unregisterListener();
+            bundleContext = null;
+        }
+        FlightRecorder.unregister(DelegatedLookupEvent.class);
+        FlightRecorder.unregister(BundleScanPhaseEvent.class);
+    }
+
+    @Override
+    public void recorderInitialized(FlightRecorder recorder) {
+        updateRegistration();
+    }
+
+    @Override
+    public void recordingStateChanged(Recording recording) {
+        updateRegistration();
+    }
+
+    private synchronized void updateRegistration() {
+        if (bundleContext == null) {
+            return;
+        }
+        if (isRecording()) {
+            if (listenerRegistration == null) {
+                LOGGER.debug("flight recording started, registering delegation event listener");
+                listenerRegistration = bundleContext.registerService(DelegationEventListener.class.getName(),
+                    new JfrDelegationEventListener(), null);
+            }
+        } else {
+            unregisterListener();
+        }
+    }
+
+    private void unregisterListener() {
+        if (listenerRegistration != null) {
+            LOGGER.debug("no flight recording running, unregistering delegation event listener");
+            listenerRegistration.unregister();
+            listenerRegistration = null;
+        }
+    }
+
+    private static boolean isRecording() {
+        if (!FlightRecorder.isInitialized()) {
+            return false;
+        }
+        for (Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+            if (recording.getState() == RecordingState.RUNNING) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,43 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.jfr.internal;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("org.openengsb.labs.delegation.BundleScanPhase")
+@Label("Bundle Scan Phase")
+@Description("Phase of scanning a bundle for provided classes and resources")
+@Category({ "OpenEngSB", "Delegation" })
+@StackTrace(false)
+public class BundleScanPhaseEvent extends Event {
+
+    @Label("Bundle")
+    String bundle;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Item Count")
+    @Description("Number of classes, resources or services handled in this phase")
+    int itemCount;
+
+}
@@ -0,0 +1,54 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.jfr.internal;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("org.openengsb.labs.delegation.DelegatedLookup")
+@Label("Delegated Lookup")
+@Description("Lookup of a class through a ClassProvider-service")
+@Category({ "OpenEngSB", "Delegation" })
+@StackTrace(true)
+public class DelegatedLookupEvent extends Event {
+
+    @Label("Class Name")
+    String name;
+
+    @Label("Delegation Context")
+    String context;
+
+    @Label("Version")
+    String version;
+
+    @Label("Provider Bundle")
+    String providerBundle;
+
+    @Label("Wait Time")
+    @Description("Time spent waiting for a matching ClassProvider")
+    @Timespan(Timespan.NANOSECONDS)
+    long waitTime;
+
+    @Label("Outcome")
+    String outcome;
+
+}
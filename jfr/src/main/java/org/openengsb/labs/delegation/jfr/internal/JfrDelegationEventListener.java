@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.jfr.internal;
+
+import org.openengsb.labs.delegation.service.DelegationEventListener;
+import org.osgi.framework.Bundle;
+
+/**
+ * Translates delegation events into JFR events.
+ */
+public class JfrDelegationEventListener implements DelegationEventListener {
+
+    @Override
+    public Object lookupStarted(String name, String context, String version) {
+        DelegatedLookupEvent event = new DelegatedLookupEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.name = name;
+        event.context = context;
+        event.version = version;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void lookupFinished(Object handle, Bundle provider, long waitNanos, LookupOutcome outcome) {
+        if (handle == null) {
+            return;
+        }
+        DelegatedLookupEvent event = (DelegatedLookupEvent) handle;
+        event.end();
+        if (event.shouldCommit()) {
+            event.providerBundle = provider == null ? null : getBundleName(provider);
+            event.waitTime = waitNanos;
+            event.outcome = outcome.name();
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object scanPhaseStarted(Bundle bundle, ScanPhase phase) {
+        BundleScanPhaseEvent event = new BundleScanPhaseEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.bundle = getBundleName(bundle);
+        event.phase = phase.name();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void scanPhaseFinished(Object handle, int itemCount) {
+        if (handle == null) {
+            return;
+        }
+        BundleScanPhaseEvent event = (BundleScanPhaseEvent) handle;
+        event.end();
+        if (event.shouldCommit()) {
+            event.itemCount = itemCount;
+            event.commit();
+        }
+    }
+
+    private static String getBundleName(Bundle bundle) {
+        return bundle.getSymbolicName() + " " + bundle.getVersion();
+    }
+
+}
@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.labs.delegation.service;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Set;
+
+import org.openengsb.labs.delegation.service.internal.PropertyAccessors;
+
+/**
+ * Reads and writes bean properties of objects by name, e.g. of instances of delegated classes.
+ *
+ * The getters and setters of each class are looked up once and cached until the bundle defining the class stops.
+ */
+public final class BeanProperties {
+
+    /**
+     * returns the value of the property of the given bean
+     *
+     * @throws IllegalArgumentException if the bean has no readable property with the given name
+     */
+    public static Object getProperty(Object bean, String property) {
+        Method getter = PropertyAccessors.forClass(bean.getClass()).getGetter(property);
+        if (getter == null) {
+            throw new IllegalArgumentException(String.format("%s has no readable property %s",
+                bean.getClass().getName(), property));
+        }
+        return invoke(getter, bean);
+    }
+
+    /**
+     * sets the property of the given bean to the given value
+     *
+     * @throws IllegalArgumentException if the bean has no writable property with the given name or the value does not
+     *         match its type
+     */
+    public static void setProperty(Object bean, String property, Object value) {
+        Method setter = PropertyAccessors.forClass(bean.getClass()).getSetter(property);
+        if (setter == null) {
+            throw new IllegalArgumentException(String.format("%s has no writable property %s",
+                bean.getClass().getName(), property));
+        }
+        invoke(setter, bean, value);
+    }
+
+    /**
+     * returns the names of all readable or writable properties of the given class
+     */
+    public static Set<String> getPropertyNames(Class<?> beanClass) {
+        return PropertyAccessors.forClass(beanClass).getPropertyNames();
+    }
+
+    /**
+     * invokes the accessor, rethrowing unchecked exceptions of the accessor and wrapping checked ones in an
+     * IllegalStateException
+     */
+    private static Object invoke(Method accessor, Object bean, Object... args) {
+        try {
+            return accessor.invoke(bean, args);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("could not access " + accessor, e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(accessor + " failed", cause);
+        }
+    }
+
+    private BeanProperties() {
+    }
+
+}
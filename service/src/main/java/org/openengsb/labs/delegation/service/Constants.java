@@ -27,9 +27,29 @@ public final class Constants {
     public static final String PROVIDED_CLASSES_KEY = "providedClasses";
     public static final String DELEGATION_CONTEXT_KEY = "delegationContext";
     public static final String DELEGATION_ANNOTATIONS_HEADER = "Delegation-Annotations";
+    /**
+     * manifest header enabling the index of class-level annotations of the provided classes (see
+     * {@link DelegationUtil#findAnnotated(String, String)})
+     */
+    public static final String ANNOTATION_INDEX_HEADER = "Delegation-Annotation-Index";
     public static final String CLASS_VERSION_KEY = "classVersion";
     public static final String PROVIDED_RESOURCES_HEADER = "Provided-Resources";
     public static final String PROVIDED_RESOURCES_KEY = "providedResources";
+    /**
+     * manifest header making the bundle register a single ClassProvider and ResourceProvider for all of its contexts
+     * instead of one per context
+     */
+    public static final String MULTIPLEX_PROVIDERS_HEADER = "Delegation-Multiplex";
+    /**
+     * service property of multiplexed providers containing the provided names qualified with their context, e.g.
+     * "context:org.example.Class"
+     */
+    public static final String CONTEXT_CLASSES_KEY = "contextClasses";
+    public static final String CONTEXT_RESOURCES_KEY = "contextResources";
+    /**
+     * directive of the Provided-Classes headers defining the {@link LoadingPolicy} of the matching classes
+     */
+    public static final String LOADING_POLICY_DIRECTIVE = "loading";
 
     private Constants() {
     }
@@ -17,22 +17,17 @@
 
 package org.openengsb.labs.delegation.service;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+import org.openengsb.labs.delegation.service.internal.ProviderLookup;
 import org.osgi.framework.BundleContext;
-import org.osgi.framework.Filter;
-import org.osgi.framework.FrameworkUtil;
-import org.osgi.framework.InvalidSyntaxException;
-import org.osgi.util.tracker.ServiceTracker;
 
 public class DelegatedClassLoadingHelper {
-    private static final long DEFAULT_TIMEOUT = 30000L;
-    private BundleContext bundleContext;
-    private long timeout = DEFAULT_TIMEOUT;
+    private final ProviderLookup lookup;
 
     public DelegatedClassLoadingHelper(BundleContext bundleContext) {
-        this.bundleContext = bundleContext;
+        lookup = new ProviderLookup(bundleContext);
     }
 
     /**
@@ -64,59 +59,48 @@ public class DelegatedClassLoadingHelper {
      * given version through the labs delegation project. If there is such a bundle, the class object will be returned.
      */
     public Class<?> loadClass(String name, String context, String version) throws ClassNotFoundException {
-        Filter filter = createFilter(name, context, version);
-        ServiceTracker serviceTracker = new ServiceTracker(bundleContext, filter, null);
-        serviceTracker.open();
-        try {
-            return doFindClass(name, serviceTracker);
-        } finally {
-            serviceTracker.close();
-        }
+        return lookup.loadClass(name, context == null ? null : Collections.singletonList(context), version);
     }
 
     /**
-     * Creates the OSGi service filter based on the three given values. Skips null values except for the name value.
+     * Searches the OSGi environment for a bundle providing a class with the given name in one of the given contexts.
+     * The contexts are checked in the given order using a single lookup, so the class is taken from the first
+     * context that provides it. If no context provides the class, the lookup waits for the timeout only once.
      */
-    private Filter createFilter(String name, String context, String version) {
-        if (name == null) {
-            throw new IllegalArgumentException("Property name may not be null");
-        }
-        List<String> filterElements = new ArrayList<String>();
-        filterElements.add(String.format("(%s=%s)", Constants.PROVIDED_CLASSES_KEY, name));
-        if (context != null) {
-            filterElements.add(String.format("(%s=%s)", Constants.DELEGATION_CONTEXT_KEY, context));
-        }
-        if (version != null) {
-            filterElements.add(String.format("(%s=%s)", Constants.CLASS_VERSION_KEY, version));
-        }
-        StringBuilder filterString = new StringBuilder();
-        for (String element : filterElements) {
-            filterString.append(element);
-        }
-        if (filterElements.size() > 1) {
-            filterString.insert(0, "(&");
-            filterString.append(")");
-        }
-        try {
-            return FrameworkUtil.createFilter(filterString.toString());
-        } catch (InvalidSyntaxException e) {
-            throw new IllegalArgumentException("Invalid filter string: " + filterString.toString(), e);
-        }
+    public Class<?> loadClassInContexts(String name, List<String> contexts) throws ClassNotFoundException {
+        return loadClassInContexts(name, contexts, null);
     }
-    
+
     /**
-     * Does the actual loading of the class object.
+     * Searches the OSGi environment for a bundle providing a class with the given name and version in one of the
+     * given contexts, checking the contexts in the given order.
      */
-    private Class<?> doFindClass(String name, ServiceTracker serviceTracker) throws ClassNotFoundException {
-        ClassProvider service;
-        try {
-            service = (ClassProvider) serviceTracker.waitForService(timeout);
-        } catch (InterruptedException e) {
-            throw new ClassNotFoundException(name, e);
+    public Class<?> loadClassInContexts(String name, List<String> contexts, String version)
+        throws ClassNotFoundException {
+        if (contexts == null || contexts.isEmpty()) {
+            throw new IllegalArgumentException("at least one context is required");
         }
-        if (service == null) {
-            throw new ClassNotFoundException(name);
-        }
-        return service.loadClass(name);
+        return lookup.loadClass(name, contexts, version);
+    }
+
+    public void setTimeout(long timeout) {
+        lookup.setTimeout(timeout);
+    }
+
+    /**
+     * sets the policy used to choose a provider if several providers match a lookup. The decision is remembered until
+     * the registered providers change, so repeated lookups return the same class.
+     */
+    public void setProviderSelection(ProviderSelection providerSelection) {
+        lookup.setProviderSelection(providerSelection);
     }
+
+    /**
+     * sets how long lookups wait for a provider to be registered. If no strategy is set, the strategy configured for
+     * the context of the lookup is used (see {@link WaitStrategy}).
+     */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        lookup.setWaitStrategy(waitStrategy);
+    }
+
 }
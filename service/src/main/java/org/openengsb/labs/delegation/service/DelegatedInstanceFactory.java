@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.labs.delegation.service;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.openengsb.labs.delegation.service.internal.ProviderSelector;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkUtil;
+
+/**
+ * Creates instances of delegated classes by name using their no-argument constructor.
+ *
+ * The class is looked up once and its constructor is cached, ready for invocation without access checks. A cached
+ * constructor is only used while no ClassProvider of its class name was registered, modified or unregistered. After
+ * such a change the class is looked up again, and the constructor is replaced if a different class (e.g. of a new
+ * provider) is returned, or the lookup fails if the provider is gone.
+ */
+public class DelegatedInstanceFactory {
+
+    private static final class CachedConstructor {
+        private final Constructor<?> constructor;
+        private final long generation;
+
+        private CachedConstructor(Constructor<?> constructor, long generation) {
+            this.constructor = constructor;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * the names of the cached constructors whose class was loaded from the bundle
+     */
+    private static final class ProviderBundle {
+        private final Bundle bundle;
+        private final Set<String> names = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        private ProviderBundle(Bundle bundle) {
+            this.bundle = bundle;
+        }
+    }
+
+    private final DelegatedClassLoadingHelper helper;
+    private final String context;
+    private final ConcurrentMap<String, CachedConstructor> constructors =
+        new ConcurrentHashMap<String, CachedConstructor>();
+    private final ConcurrentMap<Long, ProviderBundle> providerBundles = new ConcurrentHashMap<Long, ProviderBundle>();
+    private volatile long purgedGeneration;
+
+    public DelegatedInstanceFactory(DelegatedClassLoadingHelper helper) {
+        this(helper, null);
+    }
+
+    /**
+     * creates a factory looking up classes in the given delegation context
+     */
+    public DelegatedInstanceFactory(DelegatedClassLoadingHelper helper, String context) {
+        this.helper = helper;
+        this.context = context;
+    }
+
+    /**
+     * creates a new instance of the delegated class with the given name. Exceptions thrown by the constructor are
+     * rethrown if unchecked and wrapped in an InstantiationException otherwise.
+     *
+     * @throws InstantiationException if the class has no no-argument constructor or cannot be instantiated
+     */
+    public Object newInstance(String name) throws ClassNotFoundException, InstantiationException {
+        Constructor<?> constructor = getConstructor(name);
+        try {
+            return constructor.newInstance();
+        } catch (IllegalAccessException e) {
+            throw createInstantiationException(name, e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw createInstantiationException(name, cause);
+        }
+    }
+
+    /**
+     * creates a new instance of the delegated class with the given name, which must be assignable to the given type
+     */
+    public <T> T newInstance(String name, Class<T> type) throws ClassNotFoundException, InstantiationException {
+        return type.cast(newInstance(name));
+    }
+
+    /**
+     * discards all cached constructors
+     */
+    public void clear() {
+        constructors.clear();
+        providerBundles.clear();
+    }
+
+    private Constructor<?> getConstructor(String name) throws ClassNotFoundException, InstantiationException {
+        long generation = ProviderSelector.getGeneration(name);
+        CachedConstructor cached = constructors.get(name);
+        if (cached != null && cached.generation == generation && ProviderSelector.isTracking()) {
+            return cached.constructor;
+        }
+        long providersGeneration = ProviderSelector.getGeneration();
+        if (providersGeneration != purgedGeneration) {
+            purgedGeneration = providersGeneration;
+            removeConstructorsOfStoppedBundles();
+        }
+        Class<?> clazz = helper.loadClass(name, context, null);
+        Constructor<?> constructor;
+        if (cached != null && cached.constructor.getDeclaringClass() == clazz) {
+            constructor = cached.constructor;
+        } else {
+            try {
+                constructor = clazz.getDeclaredConstructor();
+            } catch (NoSuchMethodException e) {
+                throw createInstantiationException(name, e);
+            }
+            constructor.setAccessible(true);
+        }
+        constructors.put(name, new CachedConstructor(constructor, generation));
+        addToProviderBundle(name, clazz);
+        return constructor;
+    }
+
+    private void addToProviderBundle(String name, Class<?> clazz) {
+        Bundle bundle = FrameworkUtil.getBundle(clazz);
+        if (bundle == null) {
+            return;
+        }
+        ProviderBundle providerBundle = providerBundles.get(bundle.getBundleId());
+        if (providerBundle == null || providerBundle.bundle != bundle) {
+            providerBundle = new ProviderBundle(bundle);
+            providerBundles.put(bundle.getBundleId(), providerBundle);
+        }
+        providerBundle.names.add(name);
+    }
+
+    /**
+     * removes the constructors of classes whose bundle is not active anymore, so they do not keep its classloader
+     * reachable until their name is requested again. Only the bundles are checked, not every cached constructor.
+     */
+    private void removeConstructorsOfStoppedBundles() {
+        Iterator<ProviderBundle> iterator = providerBundles.values().iterator();
+        while (iterator.hasNext()) {
+            ProviderBundle providerBundle = iterator.next();
+            if ((providerBundle.bundle.getState() & (Bundle.STARTING | Bundle.ACTIVE)) != 0) {
+                continue;
+            }
+            iterator.remove();
+            for (String name : providerBundle.names) {
+                CachedConstructor cached = constructors.get(name);
+                if (cached != null
+                        && FrameworkUtil.getBundle(cached.constructor.getDeclaringClass()) == providerBundle.bundle) {
+                    constructors.remove(name, cached);
+                }
+            }
+        }
+    }
+
+    private static InstantiationException createInstantiationException(String name, Throwable cause) {
+        InstantiationException result = new InstantiationException("could not instantiate " + name);
+        result.initCause(cause);
+        return result;
+    }
+
+}
@@ -0,0 +1,273 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.labs.delegation.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.lang.reflect.Array;
+import java.lang.reflect.Modifier;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * ObjectInputStream resolving the classes of the stream through delegation, so objects of classes provided by other
+ * bundles can be deserialized.
+ *
+ * Classes of the Java platform and classes visible to the delegation bundle itself are resolved directly, without
+ * waiting for a provider. All other classes are looked up in the delegation context, so the timeout of the helper
+ * only applies to them. Array and primitive types are resolved from their component types, dynamic proxies from their
+ * interfaces, and every resolved class is cached for the lifetime of the stream, so each distinct type is looked up
+ * only once.
+ */
+public class DelegatingObjectInputStream extends ObjectInputStream {
+
+    private static final Map<String, Class<?>> PRIMITIVES = new HashMap<String, Class<?>>();
+    private static final Map<Character, Class<?>> PRIMITIVE_CODES = new HashMap<Character, Class<?>>();
+
+    private static final ClassLoader PLATFORM_CLASSLOADER = ClassLoader.getSystemClassLoader().getParent();
+
+    /**
+     * the classloaders created for proxies whose interfaces come from different classloaders, so each combination of
+     * interfaces gets a single proxy class
+     */
+    private static final Map<InterfacesKey, WeakReference<InterfacesClassLoader>> INTERFACES_CLASSLOADERS =
+        new HashMap<InterfacesKey, WeakReference<InterfacesClassLoader>>();
+
+    static {
+        Class<?>[] primitives = new Class<?>[]{ boolean.class, byte.class, char.class, short.class, int.class,
+            long.class, float.class, double.class, void.class };
+        char[] codes = new char[]{ 'Z', 'B', 'C', 'S', 'I', 'J', 'F', 'D', 'V' };
+        for (int i = 0; i < primitives.length; i++) {
+            PRIMITIVES.put(primitives[i].getName(), primitives[i]);
+            PRIMITIVE_CODES.put(codes[i], primitives[i]);
+        }
+    }
+
+    private final DelegatedClassLoadingHelper helper;
+    private final String context;
+    private final Map<String, Class<?>> resolvedClasses = new HashMap<String, Class<?>>();
+
+    public DelegatingObjectInputStream(InputStream in, DelegatedClassLoadingHelper helper) throws IOException {
+        this(in, helper, null);
+    }
+
+    /**
+     * creates a stream looking up classes in the given delegation context
+     */
+    public DelegatingObjectInputStream(InputStream in, DelegatedClassLoadingHelper helper, String context)
+        throws IOException {
+        super(in);
+        this.helper = helper;
+        this.context = context;
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+        return resolveClass(desc.getName());
+    }
+
+    /**
+     * resolves the interfaces through delegation and defines the proxy class in a classloader that sees all of them:
+     * the one of the non-public interfaces, the common one of all interfaces, or else one created for this proxy
+     */
+    @Override
+    protected Class<?> resolveProxyClass(String[] interfaceNames) throws IOException, ClassNotFoundException {
+        Class<?>[] interfaces = new Class<?>[interfaceNames.length];
+        ClassLoader nonPublicLoader = null;
+        boolean hasNonPublicInterface = false;
+        ClassLoader commonLoader = null;
+        boolean hasCommonLoader = true;
+        for (int i = 0; i < interfaceNames.length; i++) {
+            interfaces[i] = resolveClass(interfaceNames[i]);
+            ClassLoader loader = interfaces[i].getClassLoader();
+            if (!Modifier.isPublic(interfaces[i].getModifiers())) {
+                if (hasNonPublicInterface && nonPublicLoader != loader) {
+                    throw new IllegalAccessError("conflicting non-public interface class loaders");
+                }
+                nonPublicLoader = loader;
+                hasNonPublicInterface = true;
+            }
+            if (i == 0) {
+                commonLoader = loader;
+            } else if (commonLoader != loader) {
+                hasCommonLoader = false;
+            }
+        }
+        ClassLoader proxyLoader;
+        if (hasNonPublicInterface) {
+            proxyLoader = nonPublicLoader;
+        } else if (hasCommonLoader && commonLoader != null) {
+            proxyLoader = commonLoader;
+        } else {
+            proxyLoader = getInterfacesClassLoader(interfaces);
+        }
+        try {
+            return Proxy.getProxyClass(proxyLoader, interfaces);
+        } catch (IllegalArgumentException e) {
+            throw new ClassNotFoundException(null, e);
+        }
+    }
+
+    /**
+     * resolves the class with the given name (as returned by {@link Class#getName()}) and caches the result
+     */
+    private Class<?> resolveClass(String name) throws ClassNotFoundException {
+        Class<?> result = resolvedClasses.get(name);
+        if (result != null) {
+            return result;
+        }
+        result = PRIMITIVES.get(name);
+        if (result == null) {
+            result = name.startsWith("[") ? resolveArrayClass(name) : loadClass(name);
+        }
+        resolvedClasses.put(name, result);
+        return result;
+    }
+
+    /**
+     * resolves an array type like "[[Lorg.example.Bean;" from its component type
+     */
+    private Class<?> resolveArrayClass(String name) throws ClassNotFoundException {
+        int dimensions = 0;
+        while (dimensions < name.length() && name.charAt(dimensions) == '[') {
+            dimensions++;
+        }
+        String elementName = name.substring(dimensions);
+        Class<?> elementType;
+        if (elementName.length() == 1) {
+            elementType = PRIMITIVE_CODES.get(elementName.charAt(0));
+        } else if (elementName.startsWith("L") && elementName.endsWith(";")) {
+            elementType = resolveClass(elementName.substring(1, elementName.length() - 1));
+        } else {
+            elementType = null;
+        }
+        if (elementType == null || elementType == void.class) {
+            throw new ClassNotFoundException(name);
+        }
+        return Array.newInstance(elementType, new int[dimensions]).getClass();
+    }
+
+    private Class<?> loadClass(String name) throws ClassNotFoundException {
+        try {
+            return Class.forName(name, false, PLATFORM_CLASSLOADER);
+        } catch (ClassNotFoundException e) {
+            // not a class of the Java platform
+        }
+        try {
+            return Class.forName(name, false, DelegatingObjectInputStream.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            // not visible to the delegation bundle
+        }
+        return helper.loadClass(name, context, null);
+    }
+
+    /**
+     * returns the classloader exposing exactly the given interfaces, creating it if there is none yet. The cache does
+     * not keep the classloaders (and thereby the interfaces) reachable.
+     */
+    private static ClassLoader getInterfacesClassLoader(Class<?>[] interfaces) {
+        InterfacesKey key = new InterfacesKey(interfaces);
+        synchronized (INTERFACES_CLASSLOADERS) {
+            WeakReference<InterfacesClassLoader> reference = INTERFACES_CLASSLOADERS.get(key);
+            InterfacesClassLoader result = reference == null ? null : reference.get();
+            if (result == null) {
+                removeCollectedClassLoaders();
+                result = new InterfacesClassLoader(interfaces);
+                INTERFACES_CLASSLOADERS.put(key, new WeakReference<InterfacesClassLoader>(result));
+            }
+            return result;
+        }
+    }
+
+    private static void removeCollectedClassLoaders() {
+        Iterator<WeakReference<InterfacesClassLoader>> iterator = INTERFACES_CLASSLOADERS.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().get() == null) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * identifies a combination of interfaces by identity, referencing the interfaces weakly
+     */
+    private static final class InterfacesKey {
+        private final WeakReference<?>[] interfaces;
+        private final int hashCode;
+
+        private InterfacesKey(Class<?>[] interfaces) {
+            this.interfaces = new WeakReference<?>[interfaces.length];
+            int hash = 1;
+            for (int i = 0; i < interfaces.length; i++) {
+                this.interfaces[i] = new WeakReference<Class<?>>(interfaces[i]);
+                hash = 31 * hash + System.identityHashCode(interfaces[i]);
+            }
+            hashCode = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof InterfacesKey)) {
+                return false;
+            }
+            InterfacesKey other = (InterfacesKey) obj;
+            if (other.interfaces.length != interfaces.length) {
+                return false;
+            }
+            for (int i = 0; i < interfaces.length; i++) {
+                Object type = interfaces[i].get();
+                if (type == null || type != other.interfaces[i].get()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * makes interfaces from different bundles visible to a proxy class. Everything else is loaded by the classloader
+     * of the delegation bundle.
+     */
+    private static final class InterfacesClassLoader extends ClassLoader {
+        private final Map<String, Class<?>> interfaces = new HashMap<String, Class<?>>();
+
+        private InterfacesClassLoader(Class<?>[] interfaces) {
+            super(DelegatingObjectInputStream.class.getClassLoader());
+            for (Class<?> type : interfaces) {
+                this.interfaces.put(type.getName(), type);
+            }
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            Class<?> result = interfaces.get(name);
+            return result != null ? result : super.loadClass(name, resolve);
+        }
+    }
+
+}
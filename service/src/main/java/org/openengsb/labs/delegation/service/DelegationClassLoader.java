@@ -16,75 +16,82 @@
  */
 package org.openengsb.labs.delegation.service;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.openengsb.labs.delegation.service.internal.ProviderLookup;
 import org.osgi.framework.BundleContext;
-import org.osgi.framework.Filter;
-import org.osgi.framework.FrameworkUtil;
-import org.osgi.framework.InvalidSyntaxException;
-import org.osgi.util.tracker.ServiceTracker;
 
 public class DelegationClassLoader extends ClassLoader {
 
-    private static final long DEFAULT_TIMEOUT = 30000L;
-    private final BundleContext bundleContext;
-    private String delegationContext;
-    private long timeout = DEFAULT_TIMEOUT;
+    private final ProviderLookup lookup;
+    private List<String> delegationContexts;
 
     @Override
     protected Class<?> findClass(String name) throws ClassNotFoundException {
-        String filterString = String.format("(%s=%s)", Constants.PROVIDED_CLASSES_KEY, name);
-        if (delegationContext != null) {
-            filterString = String.format("(&%s(%s=%s))",
-                filterString,
-                Constants.DELEGATION_CONTEXT_KEY, delegationContext);
-        }
-        Filter filter;
-        try {
-            filter = FrameworkUtil.createFilter(filterString);
-        } catch (InvalidSyntaxException e) {
-            throw new ClassNotFoundException(name, e);
-        }
-        ServiceTracker serviceTracker = new ServiceTracker(bundleContext, filter, null);
-        serviceTracker.open();
-        try {
-            return doFindClass(name, serviceTracker);
-        } finally {
-            serviceTracker.close();
-        }
-    }
-
-    private Class<?> doFindClass(String name, ServiceTracker serviceTracker) throws ClassNotFoundException {
-        ClassProvider service;
-        try {
-            service = (ClassProvider) serviceTracker.waitForService(timeout);
-        } catch (InterruptedException e) {
-            throw new ClassNotFoundException(name, e);
-        }
-        if (service == null) {
-            throw new ClassNotFoundException(name);
-        }
-        return service.loadClass(name);
+        return lookup.loadClass(name, delegationContexts, null);
     }
 
     public DelegationClassLoader(BundleContext bundleContext) {
-        this.bundleContext = bundleContext;
+        lookup = new ProviderLookup(bundleContext);
     }
 
     public DelegationClassLoader(BundleContext bundleContext, ClassLoader parent) {
         super(parent);
-        this.bundleContext = bundleContext;
+        lookup = new ProviderLookup(bundleContext);
     }
 
+    /**
+     * creates a classloader that looks up classes in the given context. A null context does not restrict the lookup.
+     */
     public DelegationClassLoader(BundleContext bundleContext, String delegationContext) {
-        this.bundleContext = bundleContext;
+        lookup = new ProviderLookup(bundleContext);
+        if (delegationContext != null) {
+            setDelegationContexts(Collections.singletonList(delegationContext));
+        }
     }
 
     public DelegationClassLoader(BundleContext bundleContext, String delegationContext, ClassLoader parent) {
         super(parent);
-        this.bundleContext = bundleContext;
+        lookup = new ProviderLookup(bundleContext);
+        if (delegationContext != null) {
+            setDelegationContexts(Collections.singletonList(delegationContext));
+        }
+    }
+
+    /**
+     * creates a classloader that looks up classes in the given contexts. The contexts are checked in the given order
+     * using a single lookup, so a class is taken from the first context that provides it.
+     */
+    public DelegationClassLoader(BundleContext bundleContext, List<String> delegationContexts) {
+        lookup = new ProviderLookup(bundleContext);
+        setDelegationContexts(delegationContexts);
+    }
+
+    public DelegationClassLoader(BundleContext bundleContext, List<String> delegationContexts, ClassLoader parent) {
+        super(parent);
+        lookup = new ProviderLookup(bundleContext);
+        setDelegationContexts(delegationContexts);
+    }
+
+    private void setDelegationContexts(List<String> delegationContexts) {
+        if (delegationContexts == null || delegationContexts.isEmpty()) {
+            throw new IllegalArgumentException("at least one context is required");
+        }
+        this.delegationContexts = new ArrayList<String>(delegationContexts);
     }
 
     public void setTimeout(long timeout) {
-        this.timeout = timeout;
+        lookup.setTimeout(timeout);
+    }
+
+    public void setProviderSelection(ProviderSelection providerSelection) {
+        lookup.setProviderSelection(providerSelection);
+    }
+
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        lookup.setWaitStrategy(waitStrategy);
     }
 
 }
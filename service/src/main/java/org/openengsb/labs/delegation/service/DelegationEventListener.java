@@ -0,0 +1,64 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.service;
+
+import org.osgi.framework.Bundle;
+
+/**
+ * Receives notifications about delegated lookups and bundle scans, e.g. for forwarding them to a profiler.
+ *
+ * Listeners are picked up when they are registered as OSGi-services. As long as no listener is registered, the
+ * delegation bundle does not create any events at all.
+ */
+public interface DelegationEventListener {
+
+    enum LookupOutcome {
+        FOUND, NOT_FOUND, TIMEOUT, INTERRUPTED, REJECTED
+    }
+
+    enum ScanPhase {
+        DISCOVERY, CLASS_MATCHING, ANNOTATION_ANALYSIS, ANNOTATION_INDEXING, RESOURCE_MATCHING, SERVICE_REGISTRATION
+    }
+
+    /**
+     * called before a delegated lookup starts. The returned handle (which may be null) is passed to
+     * {@link #lookupFinished(Object, Bundle, long, LookupOutcome)} once the lookup is done.
+     */
+    Object lookupStarted(String name, String context, String version);
+
+    /**
+     * called when a delegated lookup is done.
+     *
+     * @param provider the bundle of the ClassProvider that was asked for the class, or null if none was found
+     * @param waitNanos time spent waiting for a matching ClassProvider
+     */
+    void lookupFinished(Object handle, Bundle provider, long waitNanos, LookupOutcome outcome);
+
+    /**
+     * called before the given phase of scanning a bundle starts. The returned handle (which may be null) is passed to
+     * {@link #scanPhaseFinished(Object, int)} once the phase is done.
+     */
+    Object scanPhaseStarted(Bundle bundle, ScanPhase phase);
+
+    /**
+     * called when a phase of scanning a bundle is done.
+     *
+     * @param itemCount number of classes, resources or services handled in this phase
+     */
+    void scanPhaseFinished(Object handle, int itemCount);
+
+}
@@ -17,9 +17,17 @@
 
 package org.openengsb.labs.delegation.service;
 
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
 
 import org.openengsb.labs.delegation.service.internal.BundleHandler;
+import org.openengsb.labs.delegation.service.internal.ContextChains;
+import org.openengsb.labs.delegation.service.internal.ResourceProviderImpl;
+import org.openengsb.labs.delegation.service.internal.TypeIndex;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkUtil;
@@ -100,10 +108,10 @@ public final class DelegationUtil {
      *         invalid
      */
     public static Filter createClassProviderFilter(String context, String classname) {
-        String filterString = String.format("(&(%s=%s)(%s=%s)(%s=%s))",
+        String filterString = String.format("(&(%s=%s)%s(%s=%s))",
             org.osgi.framework.Constants.OBJECTCLASS, ClassProvider.class.getName(),
-            Constants.DELEGATION_CONTEXT_KEY, context,
-            Constants.PROVIDED_CLASSES_KEY, classname);
+            ContextChains.createFilter(Collections.singletonList(context), classname),
+            Constants.PROVIDED_CLASSES_KEY, ContextChains.escape(classname));
         try {
             return FrameworkUtil.createFilter(filterString);
         } catch (InvalidSyntaxException e) {
@@ -120,7 +128,7 @@ public final class DelegationUtil {
     public static Filter createClassProviderFilter(String classname) {
         String filterString = String.format("(&(%s=%s)(%s=%s))",
             org.osgi.framework.Constants.OBJECTCLASS, ClassProvider.class.getName(),
-            Constants.PROVIDED_CLASSES_KEY, classname);
+            Constants.PROVIDED_CLASSES_KEY, ContextChains.escape(classname));
         try {
             return FrameworkUtil.createFilter(filterString);
         } catch (InvalidSyntaxException e) {
@@ -136,10 +144,10 @@ public final class DelegationUtil {
      *         invalid
      */
     public static Filter createClassProviderFilter(String context, String classname, Version version) {
-        String filterString = String.format("(&(%s=%s)(%s=%s)(%s=%s)(%s=%s))",
+        String filterString = String.format("(&(%s=%s)%s(%s=%s)(%s=%s))",
             org.osgi.framework.Constants.OBJECTCLASS, ClassProvider.class.getName(),
-            Constants.DELEGATION_CONTEXT_KEY, context,
-            Constants.PROVIDED_CLASSES_KEY, classname,
+            ContextChains.createFilter(Collections.singletonList(context), classname),
+            Constants.PROVIDED_CLASSES_KEY, ContextChains.escape(classname),
             Constants.CLASS_VERSION_KEY, version);
         try {
             return FrameworkUtil.createFilter(filterString);
@@ -157,7 +165,7 @@ public final class DelegationUtil {
     public static Filter createClassProviderFilter(String classname, Version version) {
         String filterString = String.format("(&(%s=%s)(%s=%s)(%s=%s))",
             org.osgi.framework.Constants.OBJECTCLASS, ClassProvider.class.getName(),
-            Constants.PROVIDED_CLASSES_KEY, classname,
+            Constants.PROVIDED_CLASSES_KEY, ContextChains.escape(classname),
             Constants.CLASS_VERSION_KEY, version.toString());
         try {
             return FrameworkUtil.createFilter(filterString);
@@ -166,6 +174,44 @@ public final class DelegationUtil {
         }
     }
 
+    /**
+     * returns the names of all provided classes in the given context that extend or implement the given type, directly
+     * or through other classes of the providing bundle. If the context is null, classes of all contexts are returned.
+     *
+     * The result is computed from the class files, so none of the classes is loaded.
+     */
+    public static Set<String> findSubtypes(String typeName, String context) {
+        return TypeIndex.findSubtypes(typeName, context);
+    }
+
+    /**
+     * returns the names of all provided classes in the given context that are annotated with the given annotation type.
+     * If the context is null, classes of all contexts are returned.
+     *
+     * Only bundles declaring the {@value Constants#ANNOTATION_INDEX_HEADER} header are indexed. The annotations are
+     * read from the class files while the bundle is scanned, so none of the classes is loaded.
+     */
+    public static Set<String> findAnnotated(String annotationType, String context) {
+        return TypeIndex.findAnnotated(annotationType, context);
+    }
+
+    /**
+     * returns a read-only buffer containing the content of the resource, or null if the provider does not provide it.
+     *
+     * Contents are shared between providers serving byte-identical resources. The providers registered by the
+     * delegation bundle additionally cache the content, so it is only read once.
+     */
+    public static ByteBuffer loadResourceContent(ResourceProvider provider, String name) throws IOException {
+        if (provider instanceof ResourceProviderImpl) {
+            return ((ResourceProviderImpl) provider).loadResourceContent(name);
+        }
+        URL resource = provider.loadResource(name);
+        if (resource == null) {
+            return null;
+        }
+        return ResourceProviderImpl.loadSharedContent(resource);
+    }
+
     private DelegationUtil() {
     }
 
@@ -0,0 +1,49 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.service;
+
+/**
+ * Defines when a provided class is loaded by the providing bundle.
+ *
+ * The policy can be set using {@link Provide#loading()} or using the directive "loading" in the Provided-Classes
+ * headers, e.g. {@code Provided-Classes: org.example.api.*;loading:=eager, org.example.Rare}.
+ */
+public enum LoadingPolicy {
+
+    /**
+     * no policy was declared: the class is loaded on the first delegated lookup, or in the background if it is part of
+     * the bundle's warm-up profile (default)
+     */
+    DEFAULT,
+
+    /**
+     * the class is only loaded on the first delegated lookup, even if it is part of the bundle's warm-up profile
+     */
+    LAZY,
+
+    /**
+     * the class is loaded while the bundle's providers are registered, before the ClassProvider-services become
+     * visible
+     */
+    EAGER,
+
+    /**
+     * the class is loaded by a low-priority background thread after the bundle's providers are registered
+     */
+    BACKGROUND
+
+}
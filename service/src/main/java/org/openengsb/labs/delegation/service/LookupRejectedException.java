@@ -0,0 +1,49 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.service;
+
+/**
+ * Thrown if no provider for a class is registered and the lookup is not allowed to wait for one, so the caller does
+ * not block.
+ */
+public class LookupRejectedException extends ClassNotFoundException {
+
+    private static final long serialVersionUID = -3705471237744069165L;
+
+    public enum Reason {
+        /**
+         * too many lookups are already waiting for providers, overall or in the context of the lookup
+         */
+        TOO_MANY_WAITERS,
+        /**
+         * recent lookups of the same class timed out, so waiting is suspended for a while
+         */
+        CIRCUIT_OPEN
+    }
+
+    private final Reason reason;
+
+    public LookupRejectedException(String name, Reason reason) {
+        super(String.format("%s (%s)", name, reason));
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+}
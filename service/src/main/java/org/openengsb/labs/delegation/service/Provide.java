@@ -29,5 +29,6 @@ public @interface Provide {
 
     String[] context() default "";
     String[] alias() default "";
+    LoadingPolicy loading() default LoadingPolicy.DEFAULT;
 
 }
@@ -0,0 +1,42 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.service;
+
+/**
+ * Defines which ClassProvider is used when several providers match a delegated lookup.
+ *
+ * All policies fall back to {@link #SERVICE_RANKING} for providers they consider equal, so the result is always
+ * deterministic.
+ */
+public enum ProviderSelection {
+
+    /**
+     * use the provider with the highest service ranking, and the lowest service id for equal rankings (default)
+     */
+    SERVICE_RANKING,
+
+    /**
+     * use the provider with the highest class version
+     */
+    HIGHEST_VERSION,
+
+    /**
+     * use a provider that has already loaded the class through delegation, so no second copy of the class is defined
+     */
+    PREFER_LOADED
+
+}
@@ -0,0 +1,38 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.service;
+
+/**
+ * Defines how long a delegated lookup waits for a matching provider to be registered.
+ *
+ * Both strategies return as soon as a provider is registered and never wait longer than the timeout of the lookup.
+ */
+public enum WaitStrategy {
+
+    /**
+     * wait until the timeout is reached (default)
+     */
+    FIXED_TIMEOUT,
+
+    /**
+     * wait while the framework starts up and the delegation bundle scans the initially active bundles. Afterwards only
+     * wait while a bundle is starting or being scanned, and fail right away otherwise. Without a running framework
+     * this behaves like {@link #FIXED_TIMEOUT}.
+     */
+    STARTUP_AWARE
+
+}
@@ -17,11 +17,28 @@
 
 package org.openengsb.labs.delegation.service.internal;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.openengsb.labs.delegation.service.ClassProvider;
+import org.openengsb.labs.delegation.service.DelegationEventListener;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.SynchronousBundleListener;
 import org.osgi.util.tracker.BundleTracker;
+import org.osgi.util.tracker.ServiceTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,23 +47,171 @@ public class Activator implements BundleActivator {
     private static final Logger LOGGER = LoggerFactory.getLogger(Activator.class);
 
     private BundleTracker bundleTracker;
+    private ServiceTracker eventListenerTracker;
+    private ObjectName statsObjectName;
+    private LookupTraceRecorder traceRecorder;
+    private ServiceListener providerListener;
+    private BundleListener bundleListener;
+    private volatile boolean stopping;
 
     @Override
-    public void start(BundleContext context) {
+    public void start(BundleContext context) throws InvalidSyntaxException {
+        stopping = false;
+        eventListenerTracker = new ServiceTracker(context, DelegationEventListener.class.getName(), null) {
+            @Override
+            public Object addingService(ServiceReference reference) {
+                DelegationEventListener listener = (DelegationEventListener) super.addingService(reference);
+                DelegationEvents.addListener(listener);
+                return listener;
+            }
+
+            @Override
+            public void removedService(ServiceReference reference, Object service) {
+                DelegationEvents.removeListener((DelegationEventListener) service);
+                super.removedService(reference, service);
+            }
+        };
+        eventListenerTracker.open();
+        startTraceRecorder(context);
+        providerListener = new ServiceListener() {
+            @Override
+            public void serviceChanged(ServiceEvent event) {
+                ProviderSelector.invalidate(event);
+            }
+        };
+        context.addServiceListener(providerListener,
+            String.format("(%s=%s)", org.osgi.framework.Constants.OBJECTCLASS, ClassProvider.class.getName()));
+        ProviderSelector.setTracking(true);
+        ProviderWaits.configure(context);
+        WarmupProfiles.setStorage(context.getDataFile("warmup"));
+        ClassPreloader.start();
         bundleTracker = new BundleTracker(context, Bundle.ACTIVE, null) {
             @Override
             public Object addingBundle(Bundle bundle, BundleEvent event) {
                 LOGGER.info("adding bundle {} {}", bundle.getSymbolicName(), bundle);
-                BundleHandler.processBundle(bundle);
-                return null;
+                ScanProgress.bundleScanStarted(bundle);
+                try {
+                    BundleHandler.processBundle(bundle);
+                } finally {
+                    ScanProgress.bundleScanFinished(bundle);
+                }
+                return bundle;
+            }
+
+            @Override
+            public void removedBundle(Bundle bundle, BundleEvent event, Object object) {
+                // while stopping, all profiles are saved at once before the tracker is closed
+                if (!stopping) {
+                    WarmupProfiles.saveLater(bundle);
+                }
+                releaseBundle(bundle);
             }
         };
-        bundleTracker.open();
+        bundleListener = new SynchronousBundleListener() {
+            @Override
+            public void bundleChanged(BundleEvent event) {
+                if (event.getType() == BundleEvent.STARTING) {
+                    ScanProgress.bundleStarting(event.getBundle());
+                } else if (event.getType() == BundleEvent.STOPPED) {
+                    ScanProgress.bundleStopped(event.getBundle());
+                }
+                // covers bundles that were never active, e.g. when a provider was injected into a resolved bundle
+                if (event.getType() == BundleEvent.UNINSTALLED || event.getType() == BundleEvent.UPDATED) {
+                    ScanProgress.bundleStopped(event.getBundle());
+                    releaseBundle(event.getBundle());
+                }
+            }
+        };
+        context.addBundleListener(bundleListener);
+        boolean batchStartup = Boolean.parseBoolean(context.getProperty(StartupRegistrations.BATCH_PROPERTY));
+        if (batchStartup) {
+            StartupRegistrations.begin();
+        }
+        try {
+            bundleTracker.open();
+        } finally {
+            if (batchStartup) {
+                int count = StartupRegistrations.publish();
+                LOGGER.info("published {} providers of the initial bundle scan", count);
+            }
+        }
+        ScanProgress.initialScanFinished();
+        registerStatsMBean(context);
     }
 
     @Override
     public void stop(BundleContext context) throws Exception {
+        unregisterStatsMBean();
+        ProviderSelector.setTracking(false);
+        ProviderWaits.reset();
+        ScanProgress.reset();
+        context.removeServiceListener(providerListener);
+        context.removeBundleListener(bundleListener);
+        // closing the tracker releases the profiles of all bundles, so they are saved once before
+        stopping = true;
+        WarmupProfiles.saveAll();
         bundleTracker.close();
+        // lets profile writes of bundles stopped earlier finish
+        ClassPreloader.shutdown();
+        BulkClassLoader.shutdown();
+        eventListenerTracker.close();
+        DelegationEvents.removeAllListeners();
+        if (traceRecorder != null) {
+            traceRecorder.close();
+            traceRecorder = null;
+        }
+    }
+
+    /**
+     * drops everything cached for all revisions of the bundle, so none of the caches keeps its classloader reachable.
+     * Warm-up profiles must be saved before.
+     */
+    private static void releaseBundle(Bundle bundle) {
+        BundleHandler.release(bundle);
+        TypeIndex.removeBundle(bundle);
+        PropertyAccessors.removeBundle(bundle);
+        ClassPreloader.cancel(bundle);
+        WarmupProfiles.removeBundle(bundle);
+        DelegationStatistics.removeBundle(bundle);
+    }
+
+    private void startTraceRecorder(BundleContext context) {
+        String traceFile = context.getProperty(LookupTraceRecorder.TRACE_FILE_PROPERTY);
+        if (traceFile == null) {
+            return;
+        }
+        try {
+            traceRecorder = new LookupTraceRecorder(new File(traceFile));
+            DelegationEvents.addListener(traceRecorder);
+        } catch (IOException e) {
+            LOGGER.warn("could not create lookup trace " + traceFile, e);
+        }
+    }
+
+    private void registerStatsMBean(BundleContext context) {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            statsObjectName = new ObjectName(DelegationStatsMXBean.OBJECT_NAME);
+            if (mBeanServer.isRegistered(statsObjectName)) {
+                mBeanServer.unregisterMBean(statsObjectName);
+            }
+            mBeanServer.registerMBean(new DelegationStats(context), statsObjectName);
+        } catch (JMException e) {
+            LOGGER.warn("could not register delegation statistics MBean", e);
+            statsObjectName = null;
+        }
+    }
+
+    private void unregisterStatsMBean() {
+        if (statsObjectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(statsObjectName);
+        } catch (JMException e) {
+            LOGGER.warn("could not unregister delegation statistics MBean", e);
+        }
+        statsObjectName = null;
     }
 
 }
@@ -0,0 +1,178 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.service.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.osgi.framework.Bundle;
+
+/**
+ * Loads many classes of a bundle at once, spreading the work over a shared pool of daemon threads.
+ *
+ * The names are sorted and split into chunks, so classes of the same package are usually loaded by the same thread.
+ * Workers only call {@link Bundle#loadClass(String)}, so the locking of the bundle's classloader is left to the
+ * framework. The calling thread takes chunks as well, so the work also completes if the pool is busy. Small sets of
+ * classes are loaded on the calling thread only.
+ */
+public final class BulkClassLoader {
+
+    static final int PARALLEL_THRESHOLD = 256;
+    static final int CHUNK_SIZE = 64;
+
+    private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors();
+
+    private static ExecutorService executor;
+
+    /**
+     * the outcome of loading classes in bulk
+     */
+    public static final class Result {
+        private final Collection<Class<?>> classes;
+        private final Map<String, Throwable> failures;
+
+        private Result(Collection<Class<?>> classes, Map<String, Throwable> failures) {
+            this.classes = classes;
+            this.failures = failures;
+        }
+
+        public Collection<Class<?>> getClasses() {
+            return classes;
+        }
+
+        /**
+         * returns the names of all classes that could not be loaded together with the error
+         */
+        public Map<String, Throwable> getFailures() {
+            return failures;
+        }
+    }
+
+    private static final class Chunks implements Runnable {
+        private final Bundle bundle;
+        private final List<String> names;
+        private final AtomicInteger nextChunk = new AtomicInteger();
+        private final Collection<Class<?>> classes = Collections.synchronizedList(new ArrayList<Class<?>>());
+        private final Map<String, Throwable> failures = new ConcurrentHashMap<String, Throwable>();
+
+        private Chunks(Bundle bundle, List<String> names) {
+            this.bundle = bundle;
+            this.names = names;
+        }
+
+        @Override
+        public void run() {
+            int chunk;
+            while ((chunk = nextChunk.getAndIncrement()) * CHUNK_SIZE < names.size()) {
+                int end = Math.min(names.size(), (chunk + 1) * CHUNK_SIZE);
+                for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+                    load(names.get(i));
+                }
+            }
+        }
+
+        private void load(String name) {
+            try {
+                classes.add(bundle.loadClass(name));
+            } catch (ClassNotFoundException e) {
+                failures.put(name, e);
+            } catch (LinkageError e) {
+                failures.put(name, e);
+            } catch (IllegalStateException e) {
+                failures.put(name, e);
+            }
+        }
+    }
+
+    /**
+     * loads all given classes of the bundle. Classes that cannot be loaded are reported in the result instead of
+     * failing the whole operation.
+     */
+    public static Result loadClasses(Bundle bundle, Collection<String> classNames) {
+        List<String> names = new ArrayList<String>(classNames);
+        Collections.sort(names);
+        Chunks chunks = new Chunks(bundle, names);
+        List<Future<?>> helpers = new ArrayList<Future<?>>();
+        if (names.size() >= PARALLEL_THRESHOLD && POOL_SIZE > 1) {
+            int helperCount = Math.min(POOL_SIZE, (names.size() + CHUNK_SIZE - 1) / CHUNK_SIZE) - 1;
+            ExecutorService pool = getExecutor();
+            try {
+                for (int i = 0; i < helperCount; i++) {
+                    helpers.add(pool.submit(chunks));
+                }
+            } catch (RejectedExecutionException e) {
+                // the pool was shut down concurrently, the calling thread does the remaining work
+            }
+        }
+        chunks.run();
+        boolean interrupted = false;
+        for (Future<?> helper : helpers) {
+            while (true) {
+                try {
+                    helper.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("loading classes of bundle " + bundle + " failed", e.getCause());
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return new Result(new ArrayList<Class<?>>(chunks.classes), chunks.failures);
+    }
+
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(POOL_SIZE, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "delegation-bulk-loader-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    private BulkClassLoader() {
+    }
+
+}
@@ -16,23 +16,30 @@
  */
 package org.openengsb.labs.delegation.service.internal;
 
+import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Dictionary;
+import java.util.EnumMap;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
 
 import org.openengsb.labs.delegation.service.ClassProvider;
 import org.openengsb.labs.delegation.service.Constants;
+import org.openengsb.labs.delegation.service.DelegationEventListener.ScanPhase;
+import org.openengsb.labs.delegation.service.LoadingPolicy;
 import org.openengsb.labs.delegation.service.Provide;
 import org.openengsb.labs.delegation.service.ResourceProvider;
+import org.openengsb.labs.delegation.service.internal.DelegationEvents.Scope;
 import org.osgi.framework.Bundle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,20 +48,48 @@ public class BundleHandler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(BundleHandler.class);
 
-    private static Map<Bundle, BundleHandler> bundleHandlers = new HashMap<Bundle, BundleHandler>();
+    private static final Map<BundleRevisionKey, BundleHandler> BUNDLE_HANDLERS =
+        new HashMap<BundleRevisionKey, BundleHandler>();
 
     private Bundle bundle;
     private Map<String, Set<String>> providedClassesMap = new HashMap<String, Set<String>>();
     private Map<String, Set<String>> providedResourcesMap = new HashMap<String, Set<String>>();
     private Map<String, String> aliasesMap = new HashMap<String, String>();
+    private Map<String, LoadingPolicy> loadingPolicies = new HashMap<String, LoadingPolicy>();
+    private Map<String, Set<String>> annotatedClasses = new HashMap<String, Set<String>>();
 
     private Set<String> bundleClasses;
 
     public static BundleHandler getInstance(Bundle bundle) {
-        if (!bundleHandlers.containsKey(bundle)) {
-            bundleHandlers.put(bundle, new BundleHandler(bundle));
+        BundleRevisionKey key = BundleRevisionKey.of(bundle);
+        synchronized (BUNDLE_HANDLERS) {
+            BundleHandler result = BUNDLE_HANDLERS.get(key);
+            if (result == null) {
+                result = new BundleHandler(bundle);
+                BUNDLE_HANDLERS.put(key, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * drops the handlers of all revisions of the bundle, so the scan results do not keep it reachable
+     */
+    public static void release(Bundle bundle) {
+        synchronized (BUNDLE_HANDLERS) {
+            Iterator<BundleRevisionKey> iterator = BUNDLE_HANDLERS.keySet().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().isRevisionOf(bundle)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    static int getHandlerCount() {
+        synchronized (BUNDLE_HANDLERS) {
+            return BUNDLE_HANDLERS.size();
         }
-        return bundleHandlers.get(bundle);
     }
 
     public static void processBundle(Bundle bundle) {
@@ -85,6 +120,14 @@ public class BundleHandler {
         doRegisterClassProviderForBundle(bundle, matchingClasses);
     }
 
+    /**
+     * Returns the classes of the bundle matching the given Provided-Classes filters without registering anything. The
+     * classes of the bundle are discovered on the first call and kept until the bundle is released.
+     */
+    public static Set<String> findMatchingClasses(Bundle bundle, Collection<String> classFilters) {
+        return getInstance(bundle).getMatchingClasses(classFilters);
+    }
+
     public static void injectResourceProviderIntoBundle(Bundle bundle, Collection<String> fileFilters) {
         BundleHandler bundleHandler = getInstance(bundle);
         Set<String> matchingResources = bundleHandler.getMatchingResources(fileFilters);
@@ -103,17 +146,78 @@ public class BundleHandler {
     }
 
     public void scanBundle() {
+        long start = System.nanoTime();
         providedResourcesMap.clear();
         providedClassesMap.clear();
+        loadingPolicies.clear();
+        annotatedClasses.clear();
+        Scope phase = DelegationEvents.scanPhaseStarted(bundle, ScanPhase.CLASS_MATCHING);
         analyzePlainProvidesHeader();
         analyzeProvidesHeadersWithContext();
+        if (phase != null) {
+            DelegationEvents.scanPhaseFinished(phase, countDistinct(providedClassesMap));
+        }
+        phase = DelegationEvents.scanPhaseStarted(bundle, ScanPhase.ANNOTATION_ANALYSIS);
         analyzeAnnotations();
+        if (phase != null) {
+            DelegationEvents.scanPhaseFinished(phase, countDistinct(providedClassesMap));
+        }
+        phase = DelegationEvents.scanPhaseStarted(bundle, ScanPhase.ANNOTATION_INDEXING);
+        indexAnnotations();
+        if (phase != null) {
+            DelegationEvents.scanPhaseFinished(phase, annotatedClasses.size());
+        }
+        phase = DelegationEvents.scanPhaseStarted(bundle, ScanPhase.RESOURCE_MATCHING);
         checkResourcesHeader();
         checkResourcesHeaderWithContext();
+        if (phase != null) {
+            DelegationEvents.scanPhaseFinished(phase, countDistinct(providedResourcesMap));
+        }
+        DelegationStatistics.bundleScanned(bundle, System.nanoTime() - start,
+            bundleClasses == null ? 0 : bundleClasses.size(), countDistinct(providedClassesMap));
+    }
+
+    private static int countDistinct(Map<String, Set<String>> entriesByContext) {
+        Set<String> result = new HashSet<String>();
+        for (Set<String> entries : entriesByContext.values()) {
+            result.addAll(entries);
+        }
+        return result.size();
     }
 
     public void handle() {
         LOGGER.info("injecting ClassProvider-Service into bundle {}.", bundle.getSymbolicName());
+        Scope phase = DelegationEvents.scanPhaseStarted(bundle, ScanPhase.SERVICE_REGISTRATION);
+        TypeIndex.addBundle(bundle, providedClassesMap, annotatedClasses);
+        Map<LoadingPolicy, Set<String>> classesByPolicy = getClassesByLoadingPolicy();
+        loadEagerClasses(classesByPolicy.get(LoadingPolicy.EAGER));
+        int serviceCount;
+        if (bundle.getHeaders().get(Constants.MULTIPLEX_PROVIDERS_HEADER) != null) {
+            serviceCount = registerMultiplexedProviders();
+        } else {
+            serviceCount = registerProvidersByContext();
+        }
+        if (phase != null) {
+            DelegationEvents.scanPhaseFinished(phase, serviceCount);
+        }
+        ClassPreloader.preload(bundle, classesByPolicy.get(LoadingPolicy.BACKGROUND));
+        WarmupProfiles.warmUp(bundle, getWarmUpCandidates());
+    }
+
+    /**
+     * returns the provided classes without an explicit loading policy, which may be preloaded by their warm-up profile
+     */
+    Set<String> getWarmUpCandidates() {
+        Set<String> result = new HashSet<String>();
+        for (Set<String> classes : providedClassesMap.values()) {
+            result.addAll(classes);
+        }
+        result.removeAll(loadingPolicies.keySet());
+        return result;
+    }
+
+    private int registerProvidersByContext() {
+        int serviceCount = providedClassesMap.size() + providedResourcesMap.size();
         if (providedClassesMap.containsKey("")) {
             Set<String> allClasses = providedClassesMap.remove("");
             doRegisterClassProviderForBundle(bundle, allClasses, aliasesMap);
@@ -128,6 +232,89 @@ public class BundleHandler {
         for (Map.Entry<String, Set<String>> entry : providedResourcesMap.entrySet()) {
             doRegisterResourceProvider(bundle, entry.getValue(), entry.getKey());
         }
+        return serviceCount;
+    }
+
+    /**
+     * registers one ClassProvider for all provided classes and one ResourceProvider for all provided resources of the
+     * bundle. The contexts of the names are published as qualified names, so lookups in a context still only match
+     * names provided in that context.
+     */
+    private int registerMultiplexedProviders() {
+        int serviceCount = 0;
+        if (!providedClassesMap.isEmpty()) {
+            Set<String> classes = new HashSet<String>();
+            Set<String> qualifiedNames = new HashSet<String>();
+            for (Map.Entry<String, Set<String>> entry : providedClassesMap.entrySet()) {
+                classes.addAll(entry.getValue());
+                if (entry.getKey().isEmpty()) {
+                    continue;
+                }
+                for (String classname : entry.getValue()) {
+                    qualifiedNames.add(ContextChains.qualify(entry.getKey(), classname));
+                }
+                for (String alias : aliasesMap.keySet()) {
+                    qualifiedNames.add(ContextChains.qualify(entry.getKey(), alias));
+                }
+            }
+            ClassProvider service = createClassProvider(bundle, classes, aliasesMap);
+            Set<String> allnames = new HashSet<String>(classes);
+            allnames.addAll(aliasesMap.keySet());
+            Hashtable<String, Object> properties = new Hashtable<String, Object>();
+            properties.put(Constants.PROVIDED_CLASSES_KEY, allnames);
+            properties.put(Constants.CONTEXT_CLASSES_KEY, qualifiedNames);
+            properties.put(Constants.CLASS_VERSION_KEY, bundle.getVersion().toString());
+            StartupRegistrations.register(bundle, ClassProvider.class.getName(), service, properties);
+            serviceCount++;
+        }
+        if (!providedResourcesMap.isEmpty()) {
+            Set<String> resources = new HashSet<String>();
+            Set<String> qualifiedNames = new HashSet<String>();
+            for (Map.Entry<String, Set<String>> entry : providedResourcesMap.entrySet()) {
+                resources.addAll(entry.getValue());
+                if (entry.getKey().isEmpty()) {
+                    continue;
+                }
+                for (String resource : entry.getValue()) {
+                    qualifiedNames.add(ContextChains.qualify(entry.getKey(), resource));
+                }
+            }
+            ResourceProvider service = new ResourceProviderImpl(bundle, resources);
+            Dictionary<String, Object> properties = new Hashtable<String, Object>();
+            properties.put(Constants.PROVIDED_RESOURCES_KEY, resources);
+            properties.put(Constants.CONTEXT_RESOURCES_KEY, qualifiedNames);
+            properties.put(Constants.CLASS_VERSION_KEY, bundle.getVersion().toString());
+            StartupRegistrations.register(bundle, ResourceProvider.class.getName(), service, properties);
+            serviceCount++;
+        }
+        return serviceCount;
+    }
+
+    private Map<LoadingPolicy, Set<String>> getClassesByLoadingPolicy() {
+        Map<LoadingPolicy, Set<String>> result = new EnumMap<LoadingPolicy, Set<String>>(LoadingPolicy.class);
+        for (LoadingPolicy policy : LoadingPolicy.values()) {
+            result.put(policy, new HashSet<String>());
+        }
+        for (Map.Entry<String, LoadingPolicy> entry : loadingPolicies.entrySet()) {
+            result.get(entry.getValue()).add(entry.getKey());
+        }
+        return result;
+    }
+
+    private void loadEagerClasses(Set<String> classes) {
+        if (classes.isEmpty()) {
+            return;
+        }
+        LOGGER.info("loading {} classes of bundle {} eagerly", classes.size(), bundle.getSymbolicName());
+        for (String classname : classes) {
+            try {
+                bundle.loadClass(classname);
+            } catch (ClassNotFoundException e) {
+                LOGGER.warn("could not load class " + classname + " eagerly", e);
+            } catch (LinkageError e) {
+                LOGGER.warn("could not load class " + classname + " eagerly", e);
+            }
+        }
     }
 
     private void analyzeAnnotations() {
@@ -153,6 +340,40 @@ public class BundleHandler {
             for (String alias : provide.alias()) {
                 addAliasForClass(classname, alias);
             }
+            setLoadingPolicy(classname, provide.loading());
+        }
+    }
+
+    /**
+     * reads the class-level annotations of all provided classes from their class files, if the bundle enables the
+     * annotation index
+     */
+    private void indexAnnotations() {
+        if (bundle.getHeaders().get(Constants.ANNOTATION_INDEX_HEADER) == null) {
+            return;
+        }
+        Set<String> providedClasses = new HashSet<String>();
+        for (Set<String> classes : providedClassesMap.values()) {
+            providedClasses.addAll(classes);
+        }
+        for (String classname : providedClasses) {
+            URL entry = bundle.getEntry(classname.replace('.', '/') + ".class");
+            if (entry == null) {
+                continue;
+            }
+            ClassFileInfo info;
+            try {
+                info = ClassFileInfo.read(entry.openStream(), true);
+            } catch (IOException e) {
+                LOGGER.warn("could not read annotations of class " + classname, e);
+                continue;
+            }
+            for (String annotation : info.getAnnotations()) {
+                if (!annotatedClasses.containsKey(annotation)) {
+                    annotatedClasses.put(annotation, new HashSet<String>());
+                }
+                annotatedClasses.get(annotation).add(classname);
+            }
         }
     }
 
@@ -173,9 +394,7 @@ public class BundleHandler {
             }
             String context = key.replaceFirst(Constants.PROVIDED_CLASSES_HEADER + "\\-", "");
             String providedClassesString = (String) bundle.getHeaders().get(key);
-            Collection<String> providedClasses = parseProvidedClasses(providedClassesString);
-            Set<String> matchingClasses = getMatchingClasses(providedClasses);
-            addClassesToContext(context, matchingClasses);
+            addProvidedClasses(context, providedClassesString);
         }
     }
 
@@ -184,9 +403,61 @@ public class BundleHandler {
         if (providedClassesString == null || providedClassesString.isEmpty()) {
             return;
         }
-        Collection<String> providedClasses = parseProvidedClasses(providedClassesString);
-        Set<String> matchingClasses = getMatchingClasses(providedClasses);
-        addClassesToContext("", matchingClasses);
+        addProvidedClasses("", providedClassesString);
+    }
+
+    /**
+     * adds the classes matching the filters of a Provided-Classes header to the given context, honouring the
+     * loading-directives of the filters
+     */
+    private void addProvidedClasses(String context, String providedClassesString) {
+        Map<LoadingPolicy, Collection<String>> filtersByPolicy =
+            new EnumMap<LoadingPolicy, Collection<String>>(LoadingPolicy.class);
+        for (String entry : parseProvidedClasses(providedClassesString)) {
+            String[] parts = entry.split(";");
+            LoadingPolicy policy = parseLoadingPolicy(parts);
+            if (!filtersByPolicy.containsKey(policy)) {
+                filtersByPolicy.put(policy, new ArrayList<String>());
+            }
+            filtersByPolicy.get(policy).add(parts[0].trim());
+        }
+        for (Map.Entry<LoadingPolicy, Collection<String>> entry : filtersByPolicy.entrySet()) {
+            Set<String> matchingClasses = getMatchingClasses(entry.getValue());
+            addClassesToContext(context, matchingClasses);
+            for (String classname : matchingClasses) {
+                setLoadingPolicy(classname, entry.getKey());
+            }
+        }
+    }
+
+    private LoadingPolicy parseLoadingPolicy(String[] clauseParts) {
+        for (int i = 1; i < clauseParts.length; i++) {
+            String[] directive = clauseParts[i].split(":=", 2);
+            if (directive.length != 2 || !Constants.LOADING_POLICY_DIRECTIVE.equals(directive[0].trim())) {
+                continue;
+            }
+            String value = directive[1].trim().replace("\"", "");
+            try {
+                return LoadingPolicy.valueOf(value.toUpperCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException e) {
+                LOGGER.warn("unknown loading policy {} in bundle {}", value, bundle.getSymbolicName());
+            }
+        }
+        return LoadingPolicy.DEFAULT;
+    }
+
+    /**
+     * sets the explicit policy for the given class. If there are several policies for the same class, the one that
+     * loads it earliest wins.
+     */
+    private void setLoadingPolicy(String classname, LoadingPolicy policy) {
+        if (policy == LoadingPolicy.DEFAULT) {
+            return;
+        }
+        LoadingPolicy current = loadingPolicies.get(classname);
+        if (current == null || current == LoadingPolicy.LAZY || policy == LoadingPolicy.EAGER) {
+            loadingPolicies.put(classname, policy);
+        }
     }
 
     private void checkResourcesHeaderWithContext() {
@@ -249,12 +520,26 @@ public class BundleHandler {
         }
     }
 
+    /**
+     * creates a provider that records the classes loaded through it in the warm-up profile of the bundle
+     */
+    private static ClassProvider createClassProvider(Bundle b, Set<String> classes, Map<String, String> aliases) {
+        ClassProviderImpl result;
+        if (aliases == null || aliases.isEmpty()) {
+            result = new ClassProviderImpl(b, classes);
+        } else {
+            result = new ClassProviderWithAliases(b, classes, aliases);
+        }
+        result.setProfile(WarmupProfiles.getProfile(b));
+        return result;
+    }
+
     private static ClassProvider doRegisterClassProviderForBundle(Bundle b, Set<String> classes) {
-        ClassProvider service = new ClassProviderImpl(b, classes);
+        ClassProvider service = createClassProvider(b, classes, null);
         Hashtable<String, Object> properties = new Hashtable<String, Object>();
         properties.put(Constants.PROVIDED_CLASSES_KEY, classes);
         properties.put(Constants.CLASS_VERSION_KEY, b.getVersion().toString());
-        b.getBundleContext().registerService(ClassProvider.class.getName(), service, properties);
+        StartupRegistrations.register(b, ClassProvider.class.getName(), service, properties);
         return service;
     }
 
@@ -263,24 +548,24 @@ public class BundleHandler {
         if (aliases == null || aliases.isEmpty()) {
             return doRegisterClassProviderForBundle(b, classes);
         }
-        ClassProvider service = new ClassProviderWithAliases(b, classes, aliases);
+        ClassProvider service = createClassProvider(b, classes, aliases);
         Hashtable<String, Object> properties = new Hashtable<String, Object>();
         Set<String> allnames = new HashSet<String>(classes);
         allnames.addAll(aliases.keySet());
         properties.put(Constants.PROVIDED_CLASSES_KEY, allnames);
         properties.put(Constants.CLASS_VERSION_KEY, b.getVersion().toString());
-        b.getBundleContext().registerService(ClassProvider.class.getName(), service, properties);
+        StartupRegistrations.register(b, ClassProvider.class.getName(), service, properties);
         return service;
     }
 
     private static ClassProvider doRegisterClassProviderForBundle(Bundle b, Set<String> classes,
             String delegationContext) {
-        ClassProvider service = new ClassProviderImpl(b, classes);
+        ClassProvider service = createClassProvider(b, classes, null);
         Hashtable<String, Object> properties = new Hashtable<String, Object>();
         properties.put(Constants.PROVIDED_CLASSES_KEY, classes);
         properties.put(Constants.CLASS_VERSION_KEY, b.getVersion().toString());
         properties.put(Constants.DELEGATION_CONTEXT_KEY, delegationContext);
-        b.getBundleContext().registerService(ClassProvider.class.getName(), service, properties);
+        StartupRegistrations.register(b, ClassProvider.class.getName(), service, properties);
         return service;
     }
 
@@ -289,14 +574,14 @@ public class BundleHandler {
         if (aliases == null || aliases.isEmpty()) {
             return doRegisterClassProviderForBundle(b, classes, delegationContext);
         }
-        ClassProvider service = new ClassProviderWithAliases(b, classes, aliases);
+        ClassProvider service = createClassProvider(b, classes, aliases);
         Hashtable<String, Object> properties = new Hashtable<String, Object>();
         Set<String> allnames = new HashSet<String>(classes);
         allnames.addAll(aliases.keySet());
         properties.put(Constants.PROVIDED_CLASSES_KEY, allnames);
         properties.put(Constants.CLASS_VERSION_KEY, b.getVersion().toString());
         properties.put(Constants.DELEGATION_CONTEXT_KEY, delegationContext);
-        b.getBundleContext().registerService(ClassProvider.class.getName(), service, properties);
+        StartupRegistrations.register(b, ClassProvider.class.getName(), service, properties);
         return service;
     }
 
@@ -305,7 +590,7 @@ public class BundleHandler {
         Dictionary<String, Object> properties = new Hashtable<String, Object>();
         properties.put(Constants.PROVIDED_RESOURCES_KEY, matchingResources);
         properties.put(Constants.CLASS_VERSION_KEY, bundle.getVersion().toString());
-        bundle.getBundleContext().registerService(ResourceProvider.class.getName(), service, properties);
+        StartupRegistrations.register(bundle, ResourceProvider.class.getName(), service, properties);
     }
 
     private static void doRegisterResourceProvider(Bundle bundle, Set<String> matchingResources,
@@ -315,7 +600,7 @@ public class BundleHandler {
         properties.put(Constants.PROVIDED_RESOURCES_KEY, matchingResources);
         properties.put(Constants.CLASS_VERSION_KEY, bundle.getVersion().toString());
         properties.put(Constants.DELEGATION_CONTEXT_KEY, delegationContext);
-        bundle.getBundleContext().registerService(ResourceProvider.class.getName(), service, properties);
+        StartupRegistrations.register(bundle, ResourceProvider.class.getName(), service, properties);
     }
 
     private Set<String> getMatchingClasses(Collection<String> classFilters) {
@@ -354,7 +639,11 @@ public class BundleHandler {
 
     private Set<String> getAllClassesInBundle() {
         if (bundleClasses == null) {
+            Scope phase = DelegationEvents.scanPhaseStarted(bundle, ScanPhase.DISCOVERY);
             bundleClasses = discoverClasses(bundle);
+            if (phase != null) {
+                DelegationEvents.scanPhaseFinished(phase, bundleClasses.size());
+            }
         }
         return bundleClasses;
     }
@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.service.internal;
+
+import org.osgi.framework.Bundle;
+
+/**
+ * Identifies a revision of a bundle by its id and the time of its last modification, which changes whenever the
+ * bundle is updated.
+ *
+ * Caches use it instead of the Bundle object, so an entry never outlives the revision it was created for and does not
+ * keep an uninstalled bundle reachable.
+ */
+final class BundleRevisionKey {
+
+    private final long bundleId;
+    private final long lastModified;
+
+    private BundleRevisionKey(long bundleId, long lastModified) {
+        this.bundleId = bundleId;
+        this.lastModified = lastModified;
+    }
+
+    static BundleRevisionKey of(Bundle bundle) {
+        return new BundleRevisionKey(bundle.getBundleId(), bundle.getLastModified());
+    }
+
+    /**
+     * returns whether this is a revision of the given bundle, no matter if the current or an earlier one
+     */
+    boolean isRevisionOf(Bundle bundle) {
+        return bundleId == bundle.getBundleId();
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (bundleId ^ bundleId >>> 32) * 31 + (int) (lastModified ^ lastModified >>> 32);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof BundleRevisionKey)) {
+            return false;
+        }
+        BundleRevisionKey other = (BundleRevisionKey) obj;
+        return bundleId == other.bundleId && lastModified == other.lastModified;
+    }
+
+    @Override
+    public String toString() {
+        return bundleId + "@" + lastModified;
+    }
+
+}
@@ -0,0 +1,292 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.service.internal;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The parts of a class file needed to index provided classes (name, supertypes and class-level annotations), read
+ * directly from the bytecode without loading the class.
+ */
+final class ClassFileInfo {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private static final String VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+    private static final String INVISIBLE_ANNOTATIONS = "RuntimeInvisibleAnnotations";
+
+    private final String name;
+    private final String superName;
+    private final List<String> interfaces;
+    private final List<String> annotations;
+
+    private ClassFileInfo(String name, String superName, List<String> interfaces, List<String> annotations) {
+        this.name = name;
+        this.superName = superName;
+        this.interfaces = interfaces;
+        this.annotations = annotations;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * returns the name of the superclass, or null for java.lang.Object
+     */
+    public String getSuperName() {
+        return superName;
+    }
+
+    public List<String> getInterfaces() {
+        return interfaces;
+    }
+
+    /**
+     * returns the type names of all annotations of the class (with retention class or runtime). The list is empty if
+     * the annotations were not read.
+     */
+    public List<String> getAnnotations() {
+        return annotations;
+    }
+
+    /**
+     * returns the superclass and all directly implemented interfaces
+     */
+    public List<String> getDirectSupertypes() {
+        List<String> result = new ArrayList<String>(interfaces.size() + 1);
+        if (superName != null) {
+            result.add(superName);
+        }
+        result.addAll(interfaces);
+        return result;
+    }
+
+    /**
+     * reads the class file from the stream, without annotations. The stream is closed afterwards.
+     *
+     * @throws IOException if the stream does not contain a valid class file
+     */
+    public static ClassFileInfo read(InputStream input) throws IOException {
+        return read(input, false);
+    }
+
+    /**
+     * reads the class file from the stream. The stream is closed afterwards.
+     *
+     * @param withAnnotations whether the class-level annotations should be read, which requires reading the whole file
+     * @throws IOException if the stream does not contain a valid class file
+     */
+    public static ClassFileInfo read(InputStream input, boolean withAnnotations) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a class file");
+            }
+            in.readUnsignedShort();
+            in.readUnsignedShort();
+            Object[] constants = readConstantPool(in);
+            in.readUnsignedShort();
+            String name = getClassName(constants, in.readUnsignedShort());
+            String superName = getClassName(constants, in.readUnsignedShort());
+            int interfaceCount = in.readUnsignedShort();
+            List<String> interfaces = new ArrayList<String>(interfaceCount);
+            for (int i = 0; i < interfaceCount; i++) {
+                interfaces.add(getClassName(constants, in.readUnsignedShort()));
+            }
+            List<String> annotations = Collections.emptyList();
+            if (withAnnotations) {
+                skipMembers(in);
+                skipMembers(in);
+                annotations = readClassAnnotations(in, constants);
+            }
+            return new ClassFileInfo(name, superName, Collections.unmodifiableList(interfaces), annotations);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * reads the constant pool, keeping UTF8-entries as String and class-entries as Integer (the index of the name)
+     */
+    private static Object[] readConstantPool(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        Object[] constants = new Object[count];
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    constants[i] = in.readUTF();
+                    break;
+                case CONSTANT_CLASS:
+                    constants[i] = in.readUnsignedShort();
+                    break;
+                case CONSTANT_STRING:
+                case CONSTANT_METHOD_TYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    in.skipBytes(2);
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    in.skipBytes(3);
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                case CONSTANT_FIELDREF:
+                case CONSTANT_METHODREF:
+                case CONSTANT_INTERFACE_METHODREF:
+                case CONSTANT_NAME_AND_TYPE:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    in.skipBytes(4);
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    in.skipBytes(8);
+                    i++;
+                    break;
+                default:
+                    throw new IOException("unknown constant pool tag " + tag);
+            }
+        }
+        return constants;
+    }
+
+    /**
+     * skips the fields or methods of the class
+     */
+    private static void skipMembers(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            in.skipBytes(6);
+            skipAttributes(in, in.readUnsignedShort());
+        }
+    }
+
+    private static void skipAttributes(DataInputStream in, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            in.skipBytes(2);
+            skipFully(in, in.readInt());
+        }
+    }
+
+    private static List<String> readClassAnnotations(DataInputStream in, Object[] constants) throws IOException {
+        List<String> result = new ArrayList<String>();
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            Object attributeName = constants[in.readUnsignedShort()];
+            int length = in.readInt();
+            if (!VISIBLE_ANNOTATIONS.equals(attributeName) && !INVISIBLE_ANNOTATIONS.equals(attributeName)) {
+                skipFully(in, length);
+                continue;
+            }
+            int annotationCount = in.readUnsignedShort();
+            for (int j = 0; j < annotationCount; j++) {
+                result.add(readAnnotation(in, constants));
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * reads an annotation and returns its type name, skipping its values
+     */
+    private static String readAnnotation(DataInputStream in, Object[] constants) throws IOException {
+        Object descriptor = constants[in.readUnsignedShort()];
+        if (!(descriptor instanceof String)) {
+            throw new IOException("invalid annotation type reference");
+        }
+        int pairCount = in.readUnsignedShort();
+        for (int i = 0; i < pairCount; i++) {
+            in.skipBytes(2);
+            skipElementValue(in, constants);
+        }
+        String typeDescriptor = (String) descriptor;
+        return typeDescriptor.substring(1, typeDescriptor.length() - 1).replace('/', '.');
+    }
+
+    private static void skipElementValue(DataInputStream in, Object[] constants) throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case 'e':
+                in.skipBytes(4);
+                break;
+            case '@':
+                readAnnotation(in, constants);
+                break;
+            case '[':
+                int count = in.readUnsignedShort();
+                for (int i = 0; i < count; i++) {
+                    skipElementValue(in, constants);
+                }
+                break;
+            default:
+                in.skipBytes(2);
+                break;
+        }
+    }
+
+    private static void skipFully(DataInputStream in, int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            int skipped = in.skipBytes(remaining);
+            if (skipped <= 0) {
+                throw new IOException("unexpected end of class file");
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private static String getClassName(Object[] constants, int index) throws IOException {
+        if (index == 0) {
+            return null;
+        }
+        if (index >= constants.length || !(constants[index] instanceof Integer)) {
+            throw new IOException("invalid class reference " + index);
+        }
+        Object name = constants[(Integer) constants[index]];
+        if (!(name instanceof String)) {
+            throw new IOException("invalid class name reference " + constants[index]);
+        }
+        return ((String) name).replace('/', '.');
+    }
+
+}
@@ -0,0 +1,235 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.service.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads classes of provider bundles in the background, using a single daemon thread with minimal priority. The same
+ * thread reads and writes the {@link WarmupProfiles}, so no bundle event waits for the disk.
+ *
+ * Tasks stop as soon as their bundle is neither starting nor active anymore, and are cancelled explicitly using
+ * {@link #cancel(Bundle)} when the bundle stops. Nothing is preloaded while the preloader is not started.
+ */
+public final class ClassPreloader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClassPreloader.class);
+
+    /**
+     * how long {@link #shutdown()} waits for pending profile writes
+     */
+    static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    private static ExecutorService executor;
+    private static final Map<BundleRevisionKey, List<Future<?>>> TASKS =
+        new HashMap<BundleRevisionKey, List<Future<?>>>();
+
+    private static class PreloadTask implements Runnable {
+        protected final Bundle bundle;
+        private final Collection<String> classNames;
+
+        private PreloadTask(Bundle bundle, Collection<String> classNames) {
+            this.bundle = bundle;
+            this.classNames = classNames;
+        }
+
+        protected Collection<String> getClassNames() {
+            return classNames;
+        }
+
+        @Override
+        public void run() {
+            int loaded = 0;
+            for (String name : getClassNames()) {
+                if (Thread.currentThread().isInterrupted()
+                        || (bundle.getState() & (Bundle.STARTING | Bundle.ACTIVE)) == 0) {
+                    LOGGER.debug("preloading classes of bundle {} cancelled after {} classes",
+                        bundle.getSymbolicName(), loaded);
+                    return;
+                }
+                try {
+                    bundle.loadClass(name);
+                    loaded++;
+                } catch (ClassNotFoundException e) {
+                    LOGGER.debug("could not preload class " + name, e);
+                } catch (LinkageError e) {
+                    LOGGER.debug("could not preload class " + name, e);
+                } catch (IllegalStateException e) {
+                    // the bundle was uninstalled in the meantime
+                    return;
+                }
+            }
+            LOGGER.debug("preloaded {} classes of bundle {}", loaded, bundle.getSymbolicName());
+        }
+    }
+
+    /**
+     * reads the stored warm-up profile of the bundle when it runs and preloads the profiled classes that are provided
+     */
+    private static final class ProfileTask extends PreloadTask {
+        private ProfileTask(Bundle bundle, Collection<String> providedClasses) {
+            super(bundle, providedClasses);
+        }
+
+        @Override
+        protected Collection<String> getClassNames() {
+            return WarmupProfiles.getProfiledClasses(bundle, super.getClassNames());
+        }
+    }
+
+    public static synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "delegation-preloader-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * cancels all preload tasks and waits up to {@value #SHUTDOWN_TIMEOUT_SECONDS} seconds for the other tasks, i.e.
+     * pending profile writes, before stopping the thread
+     */
+    public static void shutdown() throws InterruptedException {
+        ExecutorService stopped;
+        synchronized (ClassPreloader.class) {
+            if (executor == null) {
+                return;
+            }
+            for (List<Future<?>> bundleTasks : TASKS.values()) {
+                for (Future<?> task : bundleTasks) {
+                    task.cancel(true);
+                }
+            }
+            TASKS.clear();
+            stopped = executor;
+            executor = null;
+        }
+        stopped.shutdown();
+        try {
+            if (!stopped.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOGGER.warn("preloader did not finish its pending tasks within {} seconds", SHUTDOWN_TIMEOUT_SECONDS);
+            }
+        } finally {
+            stopped.shutdownNow();
+        }
+    }
+
+    /**
+     * schedules loading the given classes of the bundle in the background.
+     */
+    public static synchronized void preload(Bundle bundle, Collection<String> classNames) {
+        if (executor == null || classNames.isEmpty()) {
+            return;
+        }
+        submit(bundle, new PreloadTask(bundle, new ArrayList<String>(classNames)));
+    }
+
+    /**
+     * schedules loading the classes of the bundle's warm-up profile that are contained in providedClasses in the
+     * background. The profile is read by the preloader thread.
+     */
+    public static synchronized void preloadProfile(Bundle bundle, Collection<String> providedClasses) {
+        if (executor == null || providedClasses.isEmpty()) {
+            return;
+        }
+        submit(bundle, new ProfileTask(bundle, new ArrayList<String>(providedClasses)));
+    }
+
+    /**
+     * runs the task on the preloader thread. Does nothing while the preloader is not started.
+     */
+    public static synchronized void execute(Runnable task) {
+        if (executor != null) {
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * cancels all pending and running preload tasks of all revisions of the bundle.
+     */
+    public static synchronized void cancel(Bundle bundle) {
+        Iterator<Entry<BundleRevisionKey, List<Future<?>>>> iterator = TASKS.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry<BundleRevisionKey, List<Future<?>>> entry = iterator.next();
+            if (!entry.getKey().isRevisionOf(bundle)) {
+                continue;
+            }
+            for (Future<?> task : entry.getValue()) {
+                task.cancel(true);
+            }
+            iterator.remove();
+        }
+    }
+
+    private static void submit(Bundle bundle, PreloadTask task) {
+        removeFinishedTasks();
+        BundleRevisionKey key = BundleRevisionKey.of(bundle);
+        List<Future<?>> bundleTasks = TASKS.get(key);
+        if (bundleTasks == null) {
+            bundleTasks = new ArrayList<Future<?>>();
+            TASKS.put(key, bundleTasks);
+        }
+        bundleTasks.add(executor.submit(task));
+    }
+
+    /**
+     * drops finished tasks, and the entries of bundles without pending tasks
+     */
+    private static void removeFinishedTasks() {
+        Iterator<List<Future<?>>> entries = TASKS.values().iterator();
+        while (entries.hasNext()) {
+            List<Future<?>> bundleTasks = entries.next();
+            for (Iterator<Future<?>> iterator = bundleTasks.iterator(); iterator.hasNext();) {
+                if (iterator.next().isDone()) {
+                    iterator.remove();
+                }
+            }
+            if (bundleTasks.isEmpty()) {
+                entries.remove();
+            }
+        }
+    }
+
+    private ClassPreloader() {
+    }
+
+}
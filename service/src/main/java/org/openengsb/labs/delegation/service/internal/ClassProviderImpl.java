@@ -20,8 +20,12 @@ package org.openengsb.labs.delegation.service.internal;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.openengsb.labs.delegation.service.ClassProvider;
 import org.osgi.framework.Bundle;
@@ -34,8 +38,11 @@ import org.slf4j.LoggerFactory;
 public class ClassProviderImpl implements ClassProvider {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ClassProviderImpl.class);
+    private static final int LOGGED_FAILURES = 5;
     private Set<String> classes;
-    private Collection<Class<?>> loadedClasses;
+    private volatile Collection<Class<?>> loadedClasses;
+    private volatile Set<String> profile;
+    private final Set<String> loadedNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     protected Bundle bundle;
 
@@ -49,15 +56,37 @@ public class ClassProviderImpl implements ClassProvider {
         this.classes = new HashSet<String>(Arrays.asList(classes));
     }
 
+    /**
+     * records the names of all classes loaded through this provider in the given warm-up profile from now on
+     */
+    void setProfile(Set<String> profile) {
+        this.profile = profile;
+    }
+
     @Override
     public Class<?> loadClass(String name) throws ClassNotFoundException {
         LOGGER.debug("loading class {} by delegation", name);
         if (classes.contains(name)) {
-            return bundle.loadClass(name);
+            Class<?> result = bundle.loadClass(name);
+            if (!loadedNames.contains(name)) {
+                loadedNames.add(name);
+                Set<String> currentProfile = profile;
+                if (currentProfile != null) {
+                    currentProfile.add(name);
+                }
+            }
+            return result;
         }
         throw new ClassNotFoundException("Could not find class " + name + " using service " + this);
     }
 
+    /**
+     * returns true if the class (or alias) was already loaded using this provider
+     */
+    public boolean hasLoaded(String name) {
+        return loadedNames.contains(name);
+    }
+
     @Override
     public Collection<Class<?>> listClasses() {
         if (loadedClasses == null) {
@@ -66,14 +95,31 @@ public class ClassProviderImpl implements ClassProvider {
         return new HashSet<Class<?>>(loadedClasses);
     }
 
-    private void loadAllClasses() {
-        loadedClasses = new ArrayList<Class<?>>();
-        for (String name : classes) {
-            try {
-                loadedClasses.add(bundle.loadClass(name));
-            } catch (ClassNotFoundException e) {
-                LOGGER.warn("could not find class in list " + name, e);
-            }
+    private synchronized void loadAllClasses() {
+        if (loadedClasses != null) {
+            return;
+        }
+        BulkClassLoader.Result result = BulkClassLoader.loadClasses(bundle, classes);
+        Map<String, Throwable> failures = result.getFailures();
+        if (!failures.isEmpty()) {
+            logFailures(failures);
+        }
+        loadedClasses = result.getClasses();
+    }
+
+    /**
+     * logs the number of failures and the first few class names as warning, all of them only on debug level
+     */
+    private void logFailures(Map<String, Throwable> failures) {
+        List<String> names = new ArrayList<String>(failures.keySet());
+        Throwable first = failures.get(names.get(0));
+        if (names.size() > LOGGED_FAILURES) {
+            LOGGER.warn(String.format("could not load %d of %d classes provided by bundle %s, e.g. %s", names.size(),
+                classes.size(), bundle.getSymbolicName(), names.subList(0, LOGGED_FAILURES)), first);
+            LOGGER.debug("classes of bundle {} that could not be loaded: {}", bundle.getSymbolicName(), names);
+        } else {
+            LOGGER.warn(String.format("could not load %d of %d classes provided by bundle %s: %s", names.size(),
+                classes.size(), bundle.getSymbolicName(), names), first);
         }
     }
 
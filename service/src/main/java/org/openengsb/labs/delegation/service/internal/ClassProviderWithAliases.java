@@ -43,4 +43,12 @@ public class ClassProviderWithAliases extends ClassProviderImpl {
         return super.loadClass(name);
     }
 
+    @Override
+    public boolean hasLoaded(String name) {
+        if (aliases.containsKey(name)) {
+            return super.hasLoaded(aliases.get(name));
+        }
+        return super.hasLoaded(name);
+    }
+
 }
@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.service.internal;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.openengsb.labs.delegation.service.Constants;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Helpers for lookups in an ordered list of delegation contexts, where earlier contexts take precedence.
+ */
+public final class ContextChains {
+
+    private static final String LABEL_SEPARATOR = ">";
+    private static final String QUALIFIER_SEPARATOR = ":";
+
+    /**
+     * returns the filter-element matching providers that provide the class with the given name in any of the given
+     * contexts, either registered for a single context or multiplexed
+     */
+    public static String createFilter(List<String> contexts, String name) {
+        StringBuilder result = new StringBuilder("(|");
+        for (String context : contexts) {
+            result.append(String.format("(%s=%s)", Constants.DELEGATION_CONTEXT_KEY, escape(context)));
+            result.append(String.format("(%s=%s)", Constants.CONTEXT_CLASSES_KEY, escape(qualify(context, name))));
+        }
+        return result.append(")").toString();
+    }
+
+    /**
+     * escapes the characters with a special meaning in LDAP filters, so the value is matched literally
+     */
+    public static String escape(String value) {
+        if (value == null) {
+            return null;
+        }
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '(' || c == ')' || c == '*') {
+                result.append('\\');
+            }
+            result.append(c);
+        }
+        return result.toString();
+    }
+
+    /**
+     * returns the name qualified with the context, as used in the properties of multiplexed providers
+     */
+    public static String qualify(String context, String name) {
+        return context + QUALIFIER_SEPARATOR + name;
+    }
+
+    /**
+     * returns the name under which lookups in the given contexts are reported in statistics and events, e.g.
+     * "tenant&gt;product&gt;platform"
+     */
+    public static String getLabel(List<String> contexts) {
+        if (contexts == null) {
+            return null;
+        }
+        if (contexts.size() == 1) {
+            return contexts.get(0);
+        }
+        StringBuilder result = new StringBuilder();
+        for (String context : contexts) {
+            if (result.length() > 0) {
+                result.append(LABEL_SEPARATOR);
+            }
+            result.append(context);
+        }
+        return result.toString();
+    }
+
+    /**
+     * returns the position of the first context in the chain in which the provider provides the class, or the length
+     * of the chain if there is none
+     */
+    static int getPosition(List<String> contexts, String name, ServiceReference reference) {
+        Object context = reference.getProperty(Constants.DELEGATION_CONTEXT_KEY);
+        if (context != null) {
+            int position = contexts.indexOf(context.toString());
+            return position == -1 ? contexts.size() : position;
+        }
+        Object qualifiedNames = reference.getProperty(Constants.CONTEXT_CLASSES_KEY);
+        if (qualifiedNames instanceof Collection) {
+            for (int i = 0; i < contexts.size(); i++) {
+                if (((Collection<?>) qualifiedNames).contains(qualify(contexts.get(i), name))) {
+                    return i;
+                }
+            }
+        }
+        return contexts.size();
+    }
+
+    private ContextChains() {
+    }
+
+}
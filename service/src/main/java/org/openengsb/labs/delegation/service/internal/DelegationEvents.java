@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.service.internal;
+
+import org.openengsb.labs.delegation.service.DelegationEventListener;
+import org.openengsb.labs.delegation.service.DelegationEventListener.LookupOutcome;
+import org.openengsb.labs.delegation.service.DelegationEventListener.ScanPhase;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Dispatches events to all registered {@link DelegationEventListener}s.
+ *
+ * The started-methods return null when no listener is registered, and all finished-methods return immediately when
+ * they get null, so the only cost on the lookup path is a single volatile read.
+ */
+public final class DelegationEvents {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DelegationEvents.class);
+
+    private static final DelegationEventListener[] NO_LISTENERS = new DelegationEventListener[0];
+
+    private static volatile DelegationEventListener[] listeners = NO_LISTENERS;
+
+    /**
+     * holds the listeners that were notified about the start of an event together with their handles
+     */
+    public static final class Scope {
+        private final DelegationEventListener[] listeners;
+        private final Object[] handles;
+
+        private Scope(DelegationEventListener[] listeners) {
+            this.listeners = listeners;
+            this.handles = new Object[listeners.length];
+        }
+    }
+
+    public static boolean isEnabled() {
+        return listeners.length > 0;
+    }
+
+    public static Scope lookupStarted(String name, String context, String version) {
+        DelegationEventListener[] current = listeners;
+        if (current.length == 0) {
+            return null;
+        }
+        Scope scope = new Scope(current);
+        for (int i = 0; i < current.length; i++) {
+            try {
+                scope.handles[i] = current[i].lookupStarted(name, context, version);
+            } catch (RuntimeException e) {
+                LOGGER.warn("DelegationEventListener failed", e);
+            }
+        }
+        return scope;
+    }
+
+    public static void lookupFinished(Scope scope, ServiceReference providerReference, long waitNanos,
+            LookupOutcome outcome) {
+        if (scope == null) {
+            return;
+        }
+        Bundle provider = providerReference == null ? null : providerReference.getBundle();
+        for (int i = 0; i < scope.listeners.length; i++) {
+            try {
+                scope.listeners[i].lookupFinished(scope.handles[i], provider, waitNanos, outcome);
+            } catch (RuntimeException e) {
+                LOGGER.warn("DelegationEventListener failed", e);
+            }
+        }
+    }
+
+    public static Scope scanPhaseStarted(Bundle bundle, ScanPhase phase) {
+        DelegationEventListener[] current = listeners;
+        if (current.length == 0) {
+            return null;
+        }
+        Scope scope = new Scope(current);
+        for (int i = 0; i < current.length; i++) {
+            try {
+                scope.handles[i] = current[i].scanPhaseStarted(bundle, phase);
+            } catch (RuntimeException e) {
+                LOGGER.warn("DelegationEventListener failed", e);
+            }
+        }
+        return scope;
+    }
+
+    public static void scanPhaseFinished(Scope scope, int itemCount) {
+        if (scope == null) {
+            return;
+        }
+        for (int i = 0; i < scope.listeners.length; i++) {
+            try {
+                scope.listeners[i].scanPhaseFinished(scope.handles[i], itemCount);
+            } catch (RuntimeException e) {
+                LOGGER.warn("DelegationEventListener failed", e);
+            }
+        }
+    }
+
+    static synchronized void addListener(DelegationEventListener listener) {
+        DelegationEventListener[] newListeners = new DelegationEventListener[listeners.length + 1];
+        System.arraycopy(listeners, 0, newListeners, 0, listeners.length);
+        newListeners[listeners.length] = listener;
+        listeners = newListeners;
+    }
+
+    static synchronized void removeListener(DelegationEventListener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                DelegationEventListener[] newListeners = new DelegationEventListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, newListeners, 0, i);
+                System.arraycopy(listeners, i + 1, newListeners, i, listeners.length - i - 1);
+                listeners = newListeners;
+                return;
+            }
+        }
+    }
+
+    static synchronized void removeAllListeners() {
+        listeners = NO_LISTENERS;
+    }
+
+    private DelegationEvents() {
+    }
+
+}
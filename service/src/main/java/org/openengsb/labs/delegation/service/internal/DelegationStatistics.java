@@ -0,0 +1,262 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.service.internal;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.framework.Bundle;
+
+/**
+ * Collects counters about delegated lookups and bundle scans.
+ *
+ * All methods are static and thread-safe, so they can be called from the lookup paths of
+ * {@link org.openengsb.labs.delegation.service.DelegatedClassLoadingHelper} and
+ * {@link org.openengsb.labs.delegation.service.DelegationClassLoader} without any further setup. The values are
+ * published by {@link DelegationStats}.
+ */
+public final class DelegationStatistics {
+
+    /**
+     * key used for lookups that are not restricted to a delegation context
+     */
+    public static final String ANY_CONTEXT = "*";
+
+    public static class ContextCounters {
+        private final AtomicLong lookups = new AtomicLong();
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong timeouts = new AtomicLong();
+        private final AtomicLong rejections = new AtomicLong();
+        private final AtomicLong interruptions = new AtomicLong();
+
+        public long getLookups() {
+            return lookups.get();
+        }
+
+        public long getHits() {
+            return hits.get();
+        }
+
+        public long getMisses() {
+            return misses.get();
+        }
+
+        public long getTimeouts() {
+            return timeouts.get();
+        }
+
+        public long getRejections() {
+            return rejections.get();
+        }
+
+        public long getInterruptions() {
+            return interruptions.get();
+        }
+    }
+
+    public static class ScanInfo {
+        private final long scanTimeNanos;
+        private final int discoveredClasses;
+        private final int providedClasses;
+
+        public ScanInfo(long scanTimeNanos, int discoveredClasses, int providedClasses) {
+            this.scanTimeNanos = scanTimeNanos;
+            this.discoveredClasses = discoveredClasses;
+            this.providedClasses = providedClasses;
+        }
+
+        public long getScanTimeNanos() {
+            return scanTimeNanos;
+        }
+
+        public int getDiscoveredClasses() {
+            return discoveredClasses;
+        }
+
+        public int getProvidedClasses() {
+            return providedClasses;
+        }
+    }
+
+    private static final ConcurrentMap<String, ContextCounters> CONTEXT_COUNTERS =
+        new ConcurrentHashMap<String, ContextCounters>();
+    private static final ConcurrentMap<String, ScanInfo> SCANS = new ConcurrentHashMap<String, ScanInfo>();
+    private static final ConcurrentMap<BundleRevisionKey, String> SCAN_KEYS =
+        new ConcurrentHashMap<BundleRevisionKey, String>();
+    private static final LatencyHistogram LOOKUP_LATENCY = new LatencyHistogram();
+    private static final LatencyHistogram WAIT_TIME = new LatencyHistogram();
+    private static final LatencyHistogram SCAN_TIME = new LatencyHistogram();
+    private static final AtomicInteger BLOCKED_WAITERS = new AtomicInteger();
+    private static final AtomicInteger PEAK_BLOCKED_WAITERS = new AtomicInteger();
+
+    public static void lookupSucceeded(String context, long startNanos) {
+        ContextCounters counters = getCounters(context);
+        counters.lookups.incrementAndGet();
+        counters.hits.incrementAndGet();
+        LOOKUP_LATENCY.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * a provider was found, but it was not able to load the class
+     */
+    public static void lookupFailed(String context, long startNanos) {
+        ContextCounters counters = getCounters(context);
+        counters.lookups.incrementAndGet();
+        counters.misses.incrementAndGet();
+        LOOKUP_LATENCY.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * no provider appeared within the timeout
+     */
+    public static void lookupTimedOut(String context, long startNanos) {
+        ContextCounters counters = getCounters(context);
+        counters.lookups.incrementAndGet();
+        counters.timeouts.incrementAndGet();
+        LOOKUP_LATENCY.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * the thread was interrupted while waiting for a provider
+     */
+    public static void lookupInterrupted(String context, long startNanos) {
+        ContextCounters counters = getCounters(context);
+        counters.lookups.incrementAndGet();
+        counters.interruptions.incrementAndGet();
+        LOOKUP_LATENCY.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * no provider was registered and the lookup was not allowed to wait for one
+     */
+    public static void lookupRejected(String context, long startNanos) {
+        ContextCounters counters = getCounters(context);
+        counters.lookups.incrementAndGet();
+        counters.rejections.incrementAndGet();
+        LOOKUP_LATENCY.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * marks the calling thread as blocked while waiting for a provider. Must be followed by a call to
+     * {@link #waiterReleased(long)}.
+     */
+    public static long waiterBlocked() {
+        int current = BLOCKED_WAITERS.incrementAndGet();
+        int peak = PEAK_BLOCKED_WAITERS.get();
+        while (current > peak && !PEAK_BLOCKED_WAITERS.compareAndSet(peak, current)) {
+            peak = PEAK_BLOCKED_WAITERS.get();
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * returns the time in nanoseconds the thread has been waiting
+     */
+    public static long waiterReleased(long waitStartNanos) {
+        BLOCKED_WAITERS.decrementAndGet();
+        long waitNanos = System.nanoTime() - waitStartNanos;
+        WAIT_TIME.record(waitNanos);
+        return waitNanos;
+    }
+
+    public static void bundleScanned(Bundle bundle, long scanTimeNanos, int discoveredClasses, int providedClasses) {
+        String key = getBundleKey(bundle);
+        SCAN_KEYS.put(BundleRevisionKey.of(bundle), key);
+        SCANS.put(key, new ScanInfo(scanTimeNanos, discoveredClasses, providedClasses));
+        SCAN_TIME.record(scanTimeNanos);
+    }
+
+    /**
+     * drops the scan results of all revisions of the bundle, e.g. when it is stopped, uninstalled or updated. The
+     * results are looked up by revision, since the version of an updated bundle may have changed since the scan.
+     */
+    static void removeBundle(Bundle bundle) {
+        Iterator<Map.Entry<BundleRevisionKey, String>> iterator = SCAN_KEYS.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<BundleRevisionKey, String> entry = iterator.next();
+            if (entry.getKey().isRevisionOf(bundle)) {
+                iterator.remove();
+                SCANS.remove(entry.getValue());
+            }
+        }
+    }
+
+    public static Map<String, ContextCounters> getContextCounters() {
+        return new HashMap<String, ContextCounters>(CONTEXT_COUNTERS);
+    }
+
+    public static Map<String, ScanInfo> getScans() {
+        return new HashMap<String, ScanInfo>(SCANS);
+    }
+
+    public static LatencyHistogram getLookupLatency() {
+        return LOOKUP_LATENCY;
+    }
+
+    public static LatencyHistogram getWaitTime() {
+        return WAIT_TIME;
+    }
+
+    public static LatencyHistogram getScanTime() {
+        return SCAN_TIME;
+    }
+
+    public static int getBlockedWaiters() {
+        return BLOCKED_WAITERS.get();
+    }
+
+    public static int getPeakBlockedWaiters() {
+        return PEAK_BLOCKED_WAITERS.get();
+    }
+
+    public static void reset() {
+        CONTEXT_COUNTERS.clear();
+        SCANS.clear();
+        SCAN_KEYS.clear();
+        LOOKUP_LATENCY.reset();
+        WAIT_TIME.reset();
+        SCAN_TIME.reset();
+        PEAK_BLOCKED_WAITERS.set(BLOCKED_WAITERS.get());
+    }
+
+    static String getBundleKey(Bundle bundle) {
+        return bundle.getSymbolicName() + ";version=" + bundle.getVersion();
+    }
+
+    private static ContextCounters getCounters(String context) {
+        String key = context == null ? ANY_CONTEXT : context;
+        ContextCounters counters = CONTEXT_COUNTERS.get(key);
+        if (counters == null) {
+            ContextCounters newCounters = new ContextCounters();
+            counters = CONTEXT_COUNTERS.putIfAbsent(key, newCounters);
+            if (counters == null) {
+                counters = newCounters;
+            }
+        }
+        return counters;
+    }
+
+    private DelegationStatistics() {
+    }
+
+}
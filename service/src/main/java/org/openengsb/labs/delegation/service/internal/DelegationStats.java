@@ -0,0 +1,275 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.service.internal;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openengsb.labs.delegation.service.ClassProvider;
+import org.openengsb.labs.delegation.service.Constants;
+import org.openengsb.labs.delegation.service.ResourceProvider;
+import org.openengsb.labs.delegation.service.internal.DelegationStatistics.ContextCounters;
+import org.openengsb.labs.delegation.service.internal.DelegationStatistics.ScanInfo;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Publishes the values collected by {@link DelegationStatistics} together with the current state of the service
+ * registry.
+ */
+public class DelegationStats implements DelegationStatsMXBean {
+
+    static final int DIAGNOSTICS_MISS_COUNT = 20;
+
+    private final BundleContext bundleContext;
+
+    public DelegationStats(BundleContext bundleContext) {
+        this.bundleContext = bundleContext;
+    }
+
+    @Override
+    public long getLookupCount() {
+        long result = 0;
+        for (ContextCounters counters : DelegationStatistics.getContextCounters().values()) {
+            result += counters.getLookups();
+        }
+        return result;
+    }
+
+    @Override
+    public long getHitCount() {
+        long result = 0;
+        for (ContextCounters counters : DelegationStatistics.getContextCounters().values()) {
+            result += counters.getHits();
+        }
+        return result;
+    }
+
+    @Override
+    public long getMissCount() {
+        long result = 0;
+        for (ContextCounters counters : DelegationStatistics.getContextCounters().values()) {
+            result += counters.getMisses();
+        }
+        return result;
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        long result = 0;
+        for (ContextCounters counters : DelegationStatistics.getContextCounters().values()) {
+            result += counters.getTimeouts();
+        }
+        return result;
+    }
+
+    @Override
+    public long getRejectionCount() {
+        long result = 0;
+        for (ContextCounters counters : DelegationStatistics.getContextCounters().values()) {
+            result += counters.getRejections();
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getLookupCountsByContext() {
+        Map<String, Long> result = new HashMap<String, Long>();
+        for (Map.Entry<String, ContextCounters> entry : DelegationStatistics.getContextCounters().entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getLookups());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getMissCountsByContext() {
+        Map<String, Long> result = new HashMap<String, Long>();
+        for (Map.Entry<String, ContextCounters> entry : DelegationStatistics.getContextCounters().entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getMisses());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getTimeoutCountsByContext() {
+        Map<String, Long> result = new HashMap<String, Long>();
+        for (Map.Entry<String, ContextCounters> entry : DelegationStatistics.getContextCounters().entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getTimeouts());
+        }
+        return result;
+    }
+
+    @Override
+    public long getInterruptionCount() {
+        long result = 0;
+        for (ContextCounters counters : DelegationStatistics.getContextCounters().values()) {
+            result += counters.getInterruptions();
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getInterruptionCountsByContext() {
+        Map<String, Long> result = new HashMap<String, Long>();
+        for (Map.Entry<String, ContextCounters> entry : DelegationStatistics.getContextCounters().entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getInterruptions());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getRejectionCountsByContext() {
+        Map<String, Long> result = new HashMap<String, Long>();
+        for (Map.Entry<String, ContextCounters> entry : DelegationStatistics.getContextCounters().entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getRejections());
+        }
+        return result;
+    }
+
+    @Override
+    public double getLookupLatency50thPercentile() {
+        return DelegationStatistics.getLookupLatency().getPercentileMillis(50);
+    }
+
+    @Override
+    public double getLookupLatency99thPercentile() {
+        return DelegationStatistics.getLookupLatency().getPercentileMillis(99);
+    }
+
+    @Override
+    public double getLookupLatencyMax() {
+        return toMillis(DelegationStatistics.getLookupLatency().getMaxNanos());
+    }
+
+    @Override
+    public double getWaitTime99thPercentile() {
+        return DelegationStatistics.getWaitTime().getPercentileMillis(99);
+    }
+
+    @Override
+    public int getBlockedWaiters() {
+        return DelegationStatistics.getBlockedWaiters();
+    }
+
+    @Override
+    public int getPeakBlockedWaiters() {
+        return DelegationStatistics.getPeakBlockedWaiters();
+    }
+
+    @Override
+    public int getRegisteredClassProviders() {
+        return getServiceReferences(ClassProvider.class).length;
+    }
+
+    @Override
+    public int getRegisteredResourceProviders() {
+        return getServiceReferences(ResourceProvider.class).length;
+    }
+
+    @Override
+    public int getProvidedClassNames() {
+        Set<String> names = new HashSet<String>();
+        for (ServiceReference reference : getServiceReferences(ClassProvider.class)) {
+            Object providedClasses = reference.getProperty(Constants.PROVIDED_CLASSES_KEY);
+            if (providedClasses instanceof Collection) {
+                for (Object name : (Collection<?>) providedClasses) {
+                    names.add(String.valueOf(name));
+                }
+            }
+        }
+        return names.size();
+    }
+
+    @Override
+    public Map<String, Double> getScanTimesByBundle() {
+        Map<String, Double> result = new HashMap<String, Double>();
+        for (Map.Entry<String, ScanInfo> entry : DelegationStatistics.getScans().entrySet()) {
+            result.put(entry.getKey(), toMillis(entry.getValue().getScanTimeNanos()));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Integer> getDiscoveredClassesByBundle() {
+        Map<String, Integer> result = new HashMap<String, Integer>();
+        for (Map.Entry<String, ScanInfo> entry : DelegationStatistics.getScans().entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getDiscoveredClasses());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Integer> getProvidedClassesByBundle() {
+        Map<String, Integer> result = new HashMap<String, Integer>();
+        for (Map.Entry<String, ScanInfo> entry : DelegationStatistics.getScans().entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getProvidedClasses());
+        }
+        return result;
+    }
+
+    @Override
+    public double getLookupLatencyPercentile(double percentile) {
+        if (percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be in (0, 100]");
+        }
+        return DelegationStatistics.getLookupLatency().getPercentileMillis(percentile);
+    }
+
+    @Override
+    public void resetStatistics() {
+        DelegationStatistics.reset();
+        LookupDiagnostics.resetMisses();
+    }
+
+    @Override
+    public String[] listWaitingLookups() {
+        return LookupDiagnostics.describeWaitingLookups();
+    }
+
+    @Override
+    public Map<String, Integer> listFrequentMisses(int count) {
+        return LookupDiagnostics.getFrequentMisses(count);
+    }
+
+    @Override
+    public String dumpDiagnostics() {
+        return LookupDiagnostics.logDump(DIAGNOSTICS_MISS_COUNT);
+    }
+
+    private ServiceReference[] getServiceReferences(Class<?> serviceClass) {
+        ServiceReference[] references;
+        try {
+            references = bundleContext.getAllServiceReferences(serviceClass.getName(), null);
+        } catch (InvalidSyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+        if (references == null) {
+            return new ServiceReference[0];
+        }
+        return references;
+    }
+
+    private static double toMillis(long nanos) {
+        return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+}
@@ -0,0 +1,122 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.service.internal;
+
+import java.util.Map;
+
+/**
+ * JMX management interface exposing metrics about delegated class-loading.
+ *
+ * Latencies are reported in milliseconds and approximated using power-of-two histograms. As an MXBean, all values are
+ * mapped to open types (maps become TabularData), so generic JMX consoles can display them.
+ */
+public interface DelegationStatsMXBean {
+
+    String OBJECT_NAME = "org.openengsb.labs.delegation:type=DelegationStats";
+
+    long getLookupCount();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getTimeoutCount();
+
+    /**
+     * number of lookups that failed immediately because too many lookups were waiting or recent lookups of the same
+     * class timed out
+     */
+    long getRejectionCount();
+
+    /**
+     * number of lookups whose thread was interrupted while waiting for a provider
+     */
+    long getInterruptionCount();
+
+    /**
+     * number of lookups per delegation context. Lookups without a context are counted as "*".
+     */
+    Map<String, Long> getLookupCountsByContext();
+
+    Map<String, Long> getMissCountsByContext();
+
+    Map<String, Long> getTimeoutCountsByContext();
+
+    Map<String, Long> getRejectionCountsByContext();
+
+    Map<String, Long> getInterruptionCountsByContext();
+
+    double getLookupLatency50thPercentile();
+
+    double getLookupLatency99thPercentile();
+
+    double getLookupLatencyMax();
+
+    double getWaitTime99thPercentile();
+
+    int getBlockedWaiters();
+
+    int getPeakBlockedWaiters();
+
+    int getRegisteredClassProviders();
+
+    int getRegisteredResourceProviders();
+
+    /**
+     * number of distinct class-names (including aliases) provided by all registered ClassProviders
+     */
+    int getProvidedClassNames();
+
+    /**
+     * duration of the last scan of each bundle in milliseconds
+     */
+    Map<String, Double> getScanTimesByBundle();
+
+    /**
+     * number of classes discovered in each scanned bundle
+     */
+    Map<String, Integer> getDiscoveredClassesByBundle();
+
+    /**
+     * number of classes provided by each scanned bundle
+     */
+    Map<String, Integer> getProvidedClassesByBundle();
+
+    /**
+     * returns the lookup latency in milliseconds for the given percentile (0-100)
+     */
+    double getLookupLatencyPercentile(double percentile);
+
+    void resetStatistics();
+
+    /**
+     * returns one line per lookup currently waiting for a provider (class, context, version, waiting time and
+     * thread), the longest waiting first
+     */
+    String[] listWaitingLookups();
+
+    /**
+     * returns at most count of the classes most often not found among the recent lookups, with their number of misses
+     */
+    Map<String, Integer> listFrequentMisses(int count);
+
+    /**
+     * writes the waiting lookups and the most frequent recent misses to the log and returns the written text
+     */
+    String dumpDiagnostics();
+
+}
@@ -0,0 +1,235 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.service.internal;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the lookups currently waiting for a provider and of the recently failed lookups, so a hanging node
+ * can be diagnosed without a thread dump.
+ *
+ * Only lookups that actually wait are tracked, so lookups served by a registered provider are not slowed down. The
+ * information is published by {@link DelegationStats}.
+ */
+public final class LookupDiagnostics {
+
+    static final int RECENT_MISSES = 1000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LookupDiagnostics.class);
+
+    private static final Set<WaitingLookup> WAITING =
+        Collections.newSetFromMap(new ConcurrentHashMap<WaitingLookup, Boolean>());
+    private static final ArrayDeque<String> MISSES = new ArrayDeque<String>(RECENT_MISSES);
+
+    public static final class WaitingLookup {
+        private final String name;
+        private final String context;
+        private final String version;
+        private final String threadName;
+        private final long threadId;
+        private final long waitingSince;
+
+        private WaitingLookup(String name, String context, String version) {
+            this.name = name;
+            this.context = context;
+            this.version = version;
+            Thread thread = Thread.currentThread();
+            this.threadName = thread.getName();
+            this.threadId = thread.getId();
+            this.waitingSince = System.currentTimeMillis();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getContext() {
+            return context;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public String getThreadName() {
+            return threadName;
+        }
+
+        public long getThreadId() {
+            return threadId;
+        }
+
+        /**
+         * returns the time the lookup started waiting in milliseconds since the epoch
+         */
+        public long getWaitingSince() {
+            return waitingSince;
+        }
+
+        @Override
+        public String toString() {
+            return describe(System.currentTimeMillis(), createDateFormat());
+        }
+
+        private String describe(long now, DateFormat format) {
+            return String.format("%s waiting %d ms (since %s) in thread \"%s\" (id %d)",
+                LookupDiagnostics.describe(name, context, version), now - waitingSince,
+                format.format(new Date(waitingSince)), threadName, threadId);
+        }
+    }
+
+    /**
+     * registers the calling thread as waiting for a provider. The returned handle must be passed to
+     * {@link #waitFinished(WaitingLookup)}.
+     */
+    public static WaitingLookup waitStarted(String name, String context, String version) {
+        WaitingLookup result = new WaitingLookup(name, context, version);
+        WAITING.add(result);
+        return result;
+    }
+
+    public static void waitFinished(WaitingLookup lookup) {
+        WAITING.remove(lookup);
+    }
+
+    /**
+     * records a lookup that did not return a class. Only the last {@value #RECENT_MISSES} misses are kept.
+     */
+    public static void lookupMissed(String name, String context, String version) {
+        String miss = describe(name, context, version);
+        synchronized (MISSES) {
+            if (MISSES.size() >= RECENT_MISSES) {
+                MISSES.removeFirst();
+            }
+            MISSES.addLast(miss);
+        }
+    }
+
+    /**
+     * returns the lookups currently waiting for a provider, the longest waiting first
+     */
+    public static List<WaitingLookup> getWaitingLookups() {
+        List<WaitingLookup> result = new ArrayList<WaitingLookup>(WAITING);
+        Collections.sort(result, new Comparator<WaitingLookup>() {
+            @Override
+            public int compare(WaitingLookup o1, WaitingLookup o2) {
+                return o1.waitingSince < o2.waitingSince ? -1 : o1.waitingSince == o2.waitingSince ? 0 : 1;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * returns one line per lookup currently waiting for a provider, the longest waiting first
+     */
+    public static String[] describeWaitingLookups() {
+        List<WaitingLookup> lookups = getWaitingLookups();
+        long now = System.currentTimeMillis();
+        DateFormat format = createDateFormat();
+        String[] result = new String[lookups.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = lookups.get(i).describe(now, format);
+        }
+        return result;
+    }
+
+    /**
+     * returns at most count of the recent misses with their number of occurrences, the most frequent first. Returns
+     * none if count is not positive.
+     */
+    public static Map<String, Integer> getFrequentMisses(int count) {
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+        synchronized (MISSES) {
+            for (String miss : MISSES) {
+                Integer current = counts.get(miss);
+                counts.put(miss, current == null ? 1 : current + 1);
+            }
+        }
+        List<String> misses = new ArrayList<String>(counts.keySet());
+        Collections.sort(misses, new Comparator<String>() {
+            @Override
+            public int compare(String o1, String o2) {
+                return counts.get(o2) - counts.get(o1);
+            }
+        });
+        Map<String, Integer> result = new LinkedHashMap<String, Integer>();
+        for (String miss : misses.subList(0, Math.max(0, Math.min(count, misses.size())))) {
+            result.put(miss, counts.get(miss));
+        }
+        return result;
+    }
+
+    /**
+     * writes the waiting lookups and the most frequent recent misses to the log and returns the written text
+     */
+    public static String logDump(int missCount) {
+        StringBuilder result = new StringBuilder();
+        String[] waitingLookups = describeWaitingLookups();
+        result.append(waitingLookups.length).append(" lookups waiting for a provider");
+        for (String lookup : waitingLookups) {
+            result.append("\n  ").append(lookup);
+        }
+        Map<String, Integer> misses = getFrequentMisses(missCount);
+        result.append("\nmost frequent of the recent misses");
+        for (Map.Entry<String, Integer> entry : misses.entrySet()) {
+            result.append("\n  ").append(entry.getKey()).append(": ").append(entry.getValue());
+        }
+        String dump = result.toString();
+        LOGGER.info("delegation diagnostics:\n{}", dump);
+        return dump;
+    }
+
+    static void resetMisses() {
+        synchronized (MISSES) {
+            MISSES.clear();
+        }
+    }
+
+    private static DateFormat createDateFormat() {
+        return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+    }
+
+    private static String describe(String name, String context, String version) {
+        StringBuilder result = new StringBuilder(name);
+        if (context != null) {
+            result.append(" context=").append(context);
+        }
+        if (version != null) {
+            result.append(" version=").append(version);
+        }
+        return result.toString();
+    }
+
+    private LookupDiagnostics() {
+    }
+
+}
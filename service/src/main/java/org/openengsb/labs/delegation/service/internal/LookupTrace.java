@@ -0,0 +1,236 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.service.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openengsb.labs.delegation.service.DelegationEventListener.LookupOutcome;
+
+/**
+ * Binary format of lookup traces.
+ *
+ * A trace starts with a header (magic number, format version and the wall clock time in milliseconds at which
+ * recording started) followed by records. Each name, context and version is written only once as a string record and
+ * referenced by its index afterwards. A lookup record contains the difference between its start time and the one of
+ * the previous record, the referenced strings, the outcome and the duration of the lookup. Records are written when a
+ * lookup finishes, so concurrent lookups may appear out of order. All numbers are written as variable length
+ * integers, so a typical lookup takes less than 10 bytes.
+ */
+public final class LookupTrace {
+
+    static final int MAGIC = 0x444c5452;
+    static final int FORMAT_VERSION = 1;
+
+    private static final int STRING_RECORD = 1;
+    private static final int LOOKUP_RECORD = 2;
+
+    private static final LookupOutcome[] OUTCOMES = LookupOutcome.values();
+
+    /**
+     * a single recorded lookup
+     */
+    public static final class Entry {
+        private final long offsetNanos;
+        private final String name;
+        private final String context;
+        private final String version;
+        private final LookupOutcome outcome;
+        private final long durationNanos;
+
+        public Entry(long offsetNanos, String name, String context, String version, LookupOutcome outcome,
+                long durationNanos) {
+            this.offsetNanos = offsetNanos;
+            this.name = name;
+            this.context = context;
+            this.version = version;
+            this.outcome = outcome;
+            this.durationNanos = durationNanos;
+        }
+
+        /**
+         * time between the start of recording and the start of this lookup
+         */
+        public long getOffsetNanos() {
+            return offsetNanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getContext() {
+            return context;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public LookupOutcome getOutcome() {
+            return outcome;
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+    }
+
+    /**
+     * Writes lookups to a stream. Instances are not thread-safe.
+     */
+    public static final class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final Map<String, Integer> stringIds = new HashMap<String, Integer>();
+        private long lastOffset;
+
+        public Writer(OutputStream out, long startMillis) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(out));
+            this.out.writeInt(MAGIC);
+            this.out.writeShort(FORMAT_VERSION);
+            this.out.writeLong(startMillis);
+        }
+
+        public void write(Entry entry) throws IOException {
+            int nameId = getStringId(entry.name);
+            int contextId = getStringId(entry.context);
+            int versionId = getStringId(entry.version);
+            out.writeByte(LOOKUP_RECORD);
+            long delta = entry.offsetNanos - lastOffset;
+            writeVarLong(out, delta << 1 ^ delta >> 63);
+            writeVarLong(out, nameId);
+            writeVarLong(out, contextId);
+            writeVarLong(out, versionId);
+            out.writeByte(entry.outcome.ordinal());
+            writeVarLong(out, Math.max(0, entry.durationNanos));
+            lastOffset = entry.offsetNanos;
+        }
+
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        /**
+         * returns the index of the given string + 1 (0 represents null), writing a string record on first use
+         */
+        private int getStringId(String value) throws IOException {
+            if (value == null) {
+                return 0;
+            }
+            Integer id = stringIds.get(value);
+            if (id == null) {
+                id = stringIds.size() + 1;
+                stringIds.put(value, id);
+                out.writeByte(STRING_RECORD);
+                out.writeUTF(value);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * reads all lookups from the given trace in the order in which they were written. The stream is closed afterwards.
+     *
+     * @throws IOException if the stream does not contain a trace of a supported format version
+     */
+    public static List<Entry> read(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a lookup trace");
+            }
+            int formatVersion = in.readShort();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException("unsupported trace format version " + formatVersion);
+            }
+            in.readLong();
+            List<String> strings = new ArrayList<String>();
+            strings.add(null);
+            List<Entry> result = new ArrayList<Entry>();
+            long offset = 0;
+            while (true) {
+                int type = in.read();
+                if (type == -1) {
+                    return result;
+                }
+                try {
+                    if (type == STRING_RECORD) {
+                        strings.add(in.readUTF());
+                    } else if (type == LOOKUP_RECORD) {
+                        long delta = readVarLong(in);
+                        offset += delta >>> 1 ^ -(delta & 1);
+                        String name = strings.get((int) readVarLong(in));
+                        String context = strings.get((int) readVarLong(in));
+                        String version = strings.get((int) readVarLong(in));
+                        int outcome = in.readUnsignedByte();
+                        if (outcome >= OUTCOMES.length) {
+                            throw new IOException("unknown lookup outcome " + outcome);
+                        }
+                        result.add(new Entry(offset, name, context, version, OUTCOMES[outcome], readVarLong(in)));
+                    } else {
+                        throw new IOException("unknown record type " + type);
+                    }
+                } catch (EOFException e) {
+                    // the last record was cut off because the recording was not closed properly
+                    return result;
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("malformed variable length number");
+    }
+
+    private LookupTrace() {
+    }
+
+}
@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.service.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.openengsb.labs.delegation.service.DelegationEventListener;
+import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records all delegated lookups to a {@link LookupTrace} file.
+ *
+ * The recorder is only active if the framework- or system-property {@link #TRACE_FILE_PROPERTY} is set. Recording
+ * stops (and the error is logged once) when the file cannot be written anymore.
+ */
+public class LookupTraceRecorder implements DelegationEventListener {
+
+    public static final String TRACE_FILE_PROPERTY = "org.openengsb.labs.delegation.trace.file";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LookupTraceRecorder.class);
+
+    private static final class PendingLookup {
+        private final String name;
+        private final String context;
+        private final String version;
+        private final long start;
+
+        private PendingLookup(String name, String context, String version, long start) {
+            this.name = name;
+            this.context = context;
+            this.version = version;
+            this.start = start;
+        }
+    }
+
+    private final LookupTrace.Writer writer;
+    private final long startNanos;
+    private boolean failed;
+
+    public LookupTraceRecorder(File file) throws IOException {
+        startNanos = System.nanoTime();
+        writer = new LookupTrace.Writer(new FileOutputStream(file), System.currentTimeMillis());
+        LOGGER.info("recording delegated lookups to {}", file);
+    }
+
+    @Override
+    public Object lookupStarted(String name, String context, String version) {
+        return new PendingLookup(name, context, version, System.nanoTime());
+    }
+
+    @Override
+    public void lookupFinished(Object handle, Bundle provider, long waitNanos, LookupOutcome outcome) {
+        PendingLookup lookup = (PendingLookup) handle;
+        long duration = System.nanoTime() - lookup.start;
+        LookupTrace.Entry entry = new LookupTrace.Entry(lookup.start - startNanos, lookup.name, lookup.context,
+            lookup.version, outcome, duration);
+        synchronized (writer) {
+            if (failed) {
+                return;
+            }
+            try {
+                writer.write(entry);
+            } catch (IOException e) {
+                LOGGER.error("could not write lookup trace, recording stopped", e);
+                failed = true;
+            }
+        }
+    }
+
+    @Override
+    public Object scanPhaseStarted(Bundle bundle, ScanPhase phase) {
+        return null;
+    }
+
+    @Override
+    public void scanPhaseFinished(Object handle, int itemCount) {
+    }
+
+    public void close() {
+        synchronized (writer) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                LOGGER.warn("could not close lookup trace", e);
+            }
+            failed = true;
+        }
+    }
+
+}
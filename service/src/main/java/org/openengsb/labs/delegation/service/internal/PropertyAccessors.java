@@ -0,0 +1,178 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.service.internal;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkUtil;
+
+/**
+ * Caches the bean property getters and setters (including inherited ones) of classes.
+ *
+ * The accessors of a class are collected on first use. They are dropped when the bundle defining the class stops or
+ * is uninstalled, so the cache does not keep the classloaders of stopped bundles alive.
+ */
+public final class PropertyAccessors {
+
+    private static final ConcurrentMap<Class<?>, PropertyAccessors> ACCESSORS =
+        new ConcurrentHashMap<Class<?>, PropertyAccessors>();
+    /**
+     * counts the calls of {@link #removeBundle(Bundle)}, so accessors collected concurrently are not cached afterwards
+     */
+    private static final AtomicLong REMOVALS = new AtomicLong();
+
+    private final BundleRevisionKey revision;
+    private final Map<String, Method> getters;
+    private final Map<String, Method> setters;
+
+    private PropertyAccessors(BundleRevisionKey revision, Map<String, Method> getters, Map<String, Method> setters) {
+        this.revision = revision;
+        this.getters = getters;
+        this.setters = setters;
+    }
+
+    public static PropertyAccessors forClass(Class<?> clazz) {
+        PropertyAccessors result = ACCESSORS.get(clazz);
+        if (result != null) {
+            return result;
+        }
+        long removals = REMOVALS.get();
+        PropertyAccessors collected = collectAccessors(clazz);
+        result = ACCESSORS.putIfAbsent(clazz, collected);
+        if (result != null) {
+            return result;
+        }
+        // the bundle of the class may have been removed meanwhile, so the entry must not pin its classloader
+        if (collected.revision != null && REMOVALS.get() != removals) {
+            ACCESSORS.remove(clazz, collected);
+        }
+        return collected;
+    }
+
+    /**
+     * returns the getter of the property, or null if the property is not readable
+     */
+    public Method getGetter(String property) {
+        return getters.get(property);
+    }
+
+    /**
+     * returns the setter of the property, or null if the property is not writable
+     */
+    public Method getSetter(String property) {
+        return setters.get(property);
+    }
+
+    public Set<String> getPropertyNames() {
+        Set<String> result = new HashSet<String>(getters.keySet());
+        result.addAll(setters.keySet());
+        return result;
+    }
+
+    /**
+     * drops the accessors of all classes defined by the given bundle
+     */
+    public static void removeBundle(Bundle bundle) {
+        REMOVALS.incrementAndGet();
+        Iterator<PropertyAccessors> iterator = ACCESSORS.values().iterator();
+        while (iterator.hasNext()) {
+            BundleRevisionKey revision = iterator.next().revision;
+            if (revision != null && revision.isRevisionOf(bundle)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    static void clear() {
+        ACCESSORS.clear();
+    }
+
+    private static PropertyAccessors collectAccessors(Class<?> clazz) {
+        Map<String, Method> getters = new HashMap<String, Method>();
+        Map<String, Method> setters = new HashMap<String, Method>();
+        for (Method method : clazz.getMethods()) {
+            if (Modifier.isStatic(method.getModifiers()) || method.getDeclaringClass() == Object.class) {
+                continue;
+            }
+            String name = method.getName();
+            Class<?>[] parameterTypes = method.getParameterTypes();
+            if (parameterTypes.length == 0 && name.startsWith("get") && name.length() > 3
+                    && method.getReturnType() != void.class) {
+                getters.put(getPropertyName(name, 3), makeAccessible(method));
+            } else if (parameterTypes.length == 0 && name.startsWith("is") && name.length() > 2
+                    && method.getReturnType() == boolean.class) {
+                getters.put(getPropertyName(name, 2), makeAccessible(method));
+            } else if (parameterTypes.length == 1 && name.startsWith("set") && name.length() > 3) {
+                setters.put(getPropertyName(name, 3), makeAccessible(method));
+            }
+        }
+        // prefer the setter matching the type of the getter if the setter is overloaded
+        for (Map.Entry<String, Method> entry : setters.entrySet()) {
+            Method getter = getters.get(entry.getKey());
+            if (getter == null || entry.getValue().getParameterTypes()[0] == getter.getReturnType()) {
+                continue;
+            }
+            try {
+                Method setter = clazz.getMethod(entry.getValue().getName(), getter.getReturnType());
+                entry.setValue(makeAccessible(setter));
+            } catch (NoSuchMethodException e) {
+                // keep the setter found
+            }
+        }
+        Bundle bundle = FrameworkUtil.getBundle(clazz);
+        return new PropertyAccessors(bundle == null ? null : BundleRevisionKey.of(bundle),
+            Collections.unmodifiableMap(getters), Collections.unmodifiableMap(setters));
+    }
+
+    /**
+     * returns the property name of an accessor according to the JavaBeans conventions, e.g. "id" for "getId" and
+     * "URL" for "getURL"
+     */
+    private static String getPropertyName(String methodName, int prefixLength) {
+        String name = methodName.substring(prefixLength);
+        if (name.length() > 1 && Character.isUpperCase(name.charAt(1)) && Character.isUpperCase(name.charAt(0))) {
+            return name;
+        }
+        return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+    }
+
+    /**
+     * public methods of non-public classes can only be invoked reflectively if access checks are disabled. This fails
+     * with a SecurityException, or on Java 9 and later with an InaccessibleObjectException for classes of modules
+     * that are not opened.
+     */
+    private static Method makeAccessible(Method method) {
+        try {
+            method.setAccessible(true);
+        } catch (RuntimeException e) {
+            // invoke with access checks
+        }
+        return method;
+    }
+
+}
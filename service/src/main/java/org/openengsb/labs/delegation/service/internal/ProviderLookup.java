@@ -0,0 +1,223 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.service.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openengsb.labs.delegation.service.ClassProvider;
+import org.openengsb.labs.delegation.service.Constants;
+import org.openengsb.labs.delegation.service.DelegationEventListener.LookupOutcome;
+import org.openengsb.labs.delegation.service.LookupRejectedException;
+import org.openengsb.labs.delegation.service.ProviderSelection;
+import org.openengsb.labs.delegation.service.WaitStrategy;
+import org.openengsb.labs.delegation.service.internal.DelegationEvents.Scope;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+
+/**
+ * Performs delegated class lookups for {@link org.openengsb.labs.delegation.service.DelegatedClassLoadingHelper} and
+ * {@link org.openengsb.labs.delegation.service.DelegationClassLoader}.
+ *
+ * A lookup first tries the provider selected by an earlier identical lookup. Otherwise it waits for a matching
+ * ClassProvider (see {@link ProviderWaits}), orders all matching providers (see {@link ProviderSelector}) and returns
+ * the class from the first one able to load it.
+ */
+public final class ProviderLookup {
+
+    public static final long DEFAULT_TIMEOUT = 30000L;
+
+    private final BundleContext bundleContext;
+    private long timeout = DEFAULT_TIMEOUT;
+    private ProviderSelection providerSelection = ProviderSelection.SERVICE_RANKING;
+    private WaitStrategy waitStrategy;
+
+    public ProviderLookup(BundleContext bundleContext) {
+        this.bundleContext = bundleContext;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public void setProviderSelection(ProviderSelection providerSelection) {
+        this.providerSelection = providerSelection;
+    }
+
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * loads the class from a provider registered in one of the given contexts (checked in order) with the given
+     * version. Null contexts or a null version do not restrict the lookup.
+     */
+    public Class<?> loadClass(String name, List<String> contexts, String version) throws ClassNotFoundException {
+        long start = System.nanoTime();
+        StartupRegistrations.awaitPublication(timeout);
+        String context = ContextChains.getLabel(contexts);
+        Filter filter = createFilter(name, contexts, version);
+        String selectionKey = ProviderSelector.getKey(bundleContext, providerSelection, filter);
+        ServiceReference selected = ProviderSelector.getCached(selectionKey);
+        if (selected != null) {
+            Class<?> result = loadFromSelectedProvider(name, context, version, selected, start);
+            if (result != null) {
+                return result;
+            }
+        }
+        long generation = ProviderSelector.getGeneration();
+        ServiceTracker serviceTracker = new ServiceTracker(bundleContext, filter, null);
+        serviceTracker.open();
+        try {
+            return doFindClass(name, context, contexts, version, serviceTracker, selectionKey, generation, start);
+        } finally {
+            serviceTracker.close();
+        }
+    }
+
+    /**
+     * Creates the OSGi service filter based on the three given values. Skips null values except for the name value.
+     * Several contexts are combined, so a provider matches if it is registered in any of them.
+     */
+    private static Filter createFilter(String name, List<String> contexts, String version) {
+        if (name == null) {
+            throw new IllegalArgumentException("Property name may not be null");
+        }
+        List<String> filterElements = new ArrayList<String>();
+        filterElements.add(String.format("(%s=%s)", Constants.PROVIDED_CLASSES_KEY, ContextChains.escape(name)));
+        if (contexts != null) {
+            filterElements.add(ContextChains.createFilter(contexts, name));
+        }
+        if (version != null) {
+            filterElements.add(String.format("(%s=%s)", Constants.CLASS_VERSION_KEY, ContextChains.escape(version)));
+        }
+        StringBuilder filterString = new StringBuilder();
+        for (String element : filterElements) {
+            filterString.append(element);
+        }
+        if (filterElements.size() > 1) {
+            filterString.insert(0, "(&");
+            filterString.append(")");
+        }
+        try {
+            return FrameworkUtil.createFilter(filterString.toString());
+        } catch (InvalidSyntaxException e) {
+            throw new IllegalArgumentException("Invalid filter string: " + filterString.toString(), e);
+        }
+    }
+
+    /**
+     * returns the time left for waiting for a provider, excluding the time the lookup already waited for the
+     * registrations of the startup scan
+     */
+    private long getRemainingTimeout(long start) {
+        if (timeout == 0) {
+            return 0;
+        }
+        return Math.max(1, timeout - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Loads the class from the provider that was selected by an earlier lookup. Returns null if that provider is not
+     * available anymore or fails to load the class.
+     */
+    private Class<?> loadFromSelectedProvider(String name, String context, String version, ServiceReference reference,
+            long start) {
+        ClassProvider service = (ClassProvider) bundleContext.getService(reference);
+        if (service == null) {
+            return null;
+        }
+        Scope event = DelegationEvents.lookupStarted(name, context, version);
+        try {
+            Class<?> result = service.loadClass(name);
+            DelegationStatistics.lookupSucceeded(context, start);
+            DelegationEvents.lookupFinished(event, reference, 0, LookupOutcome.FOUND);
+            return result;
+        } catch (ClassNotFoundException e) {
+            // fall back to a full lookup, which tries the other providers
+            DelegationEvents.lookupFinished(event, reference, 0, LookupOutcome.NOT_FOUND);
+            ProviderSelector.markSuspect(reference);
+            return null;
+        } finally {
+            bundleContext.ungetService(reference);
+        }
+    }
+
+    /**
+     * Does the actual loading of the class object.
+     */
+    private Class<?> doFindClass(String name, String context, List<String> contexts, String version,
+            ServiceTracker serviceTracker, String selectionKey, long generation, long start)
+        throws ClassNotFoundException {
+        Scope event = DelegationEvents.lookupStarted(name, context, version);
+        Object firstService;
+        long waitStart = System.nanoTime();
+        try {
+            firstService = ProviderWaits.waitForProvider(serviceTracker, name, contexts, version,
+                getRemainingTimeout(start), waitStrategy);
+        } catch (LookupRejectedException e) {
+            DelegationStatistics.lookupRejected(context, start);
+            LookupDiagnostics.lookupMissed(name, context, version);
+            DelegationEvents.lookupFinished(event, null, 0, LookupOutcome.REJECTED);
+            throw e;
+        } catch (InterruptedException e) {
+            DelegationStatistics.lookupInterrupted(context, start);
+            DelegationEvents.lookupFinished(event, null, System.nanoTime() - waitStart, LookupOutcome.INTERRUPTED);
+            throw new ClassNotFoundException(name, e);
+        }
+        long waitTime = System.nanoTime() - waitStart;
+        if (firstService == null) {
+            DelegationStatistics.lookupTimedOut(context, start);
+            DelegationEvents.lookupFinished(event, null, waitTime, LookupOutcome.TIMEOUT);
+            LookupDiagnostics.lookupMissed(name, context, version);
+            throw new ClassNotFoundException(name);
+        }
+        ClassNotFoundException failure = null;
+        ServiceReference failedReference = null;
+        ServiceReference[] candidates = ProviderSelector.order(serviceTracker, providerSelection, name, contexts);
+        for (ServiceReference reference : candidates) {
+            ClassProvider service = (ClassProvider) serviceTracker.getService(reference);
+            if (service == null) {
+                // the provider was unregistered in the meantime
+                continue;
+            }
+            try {
+                Class<?> result = service.loadClass(name);
+                DelegationStatistics.lookupSucceeded(context, start);
+                DelegationEvents.lookupFinished(event, reference, waitTime, LookupOutcome.FOUND);
+                ProviderSelector.cache(selectionKey, reference, generation);
+                return result;
+            } catch (ClassNotFoundException e) {
+                ProviderSelector.markSuspect(reference);
+                if (failure == null) {
+                    failure = e;
+                    failedReference = reference;
+                }
+            }
+        }
+        DelegationStatistics.lookupFailed(context, start);
+        LookupDiagnostics.lookupMissed(name, context, version);
+        DelegationEvents.lookupFinished(event, failedReference, waitTime, LookupOutcome.NOT_FOUND);
+        throw failure != null ? failure : new ClassNotFoundException(name);
+    }
+
+}
@@ -0,0 +1,302 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.service.internal;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.openengsb.labs.delegation.service.Constants;
+import org.openengsb.labs.delegation.service.ProviderSelection;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Filter;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.Version;
+import org.osgi.util.tracker.ServiceTracker;
+
+/**
+ * Orders matching ClassProviders according to a {@link ProviderSelection} and remembers the decision.
+ *
+ * Decisions are cached per lookup (see {@link #getKey(BundleContext, ProviderSelection, Filter)}) until the set of
+ * registered ClassProviders changes. The cache is only used while the delegation bundle tracks
+ * ClassProvider-registrations (see {@link #setTracking(boolean)}), so stale decisions can never be served. The least
+ * recently used decisions are dropped when more than {@value #MAX_CACHED_SELECTIONS} lookups are cached.
+ */
+public final class ProviderSelector {
+
+    static final int MAX_CACHED_SELECTIONS = 10000;
+    static final long SUSPECT_MILLIS = 5000;
+    static final int NAME_STRIPES = 4096;
+
+    private static final AtomicLong GENERATION = new AtomicLong();
+    /**
+     * generations of the provided class names, one per stripe of names with the same hash. They are advanced in
+     * addition to {@link #ALL_NAMES_GENERATION}, which covers changes whose class names are unknown.
+     */
+    private static final AtomicLongArray NAME_GENERATIONS = new AtomicLongArray(NAME_STRIPES);
+    private static final AtomicLong ALL_NAMES_GENERATION = new AtomicLong();
+    private static final LruCache<String, CachedSelection> SELECTIONS =
+        new LruCache<String, CachedSelection>(MAX_CACHED_SELECTIONS);
+    private static final LruCache<Long, Long> SUSPECTS = new LruCache<Long, Long>(MAX_CACHED_SELECTIONS);
+
+    private static volatile boolean tracking;
+
+    private static final class CachedSelection {
+        private final ServiceReference reference;
+        private final long generation;
+
+        private CachedSelection(ServiceReference reference, long generation) {
+            this.reference = reference;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * the properties of a provider that decide its position, read once before sorting, so the order stays consistent
+     * even if a provider becomes suspect or loads the class while the candidates are sorted
+     */
+    private static final class Rank {
+        private final ServiceReference reference;
+        private final int position;
+        private final boolean suspect;
+        private final boolean loaded;
+        private final Version version;
+        private final int ranking;
+        private final long serviceId;
+
+        private Rank(ServiceTracker serviceTracker, ProviderSelection selection, String name, List<String> contexts,
+                ServiceReference reference) {
+            this.reference = reference;
+            if (contexts != null && contexts.size() > 1) {
+                position = ContextChains.getPosition(contexts, name, reference);
+            } else {
+                position = 0;
+            }
+            suspect = isSuspect(reference);
+            loaded = selection == ProviderSelection.PREFER_LOADED && hasLoaded(serviceTracker, reference, name);
+            version = selection == ProviderSelection.HIGHEST_VERSION ? getVersion(reference) : Version.emptyVersion;
+            Object rankingProperty = reference.getProperty(org.osgi.framework.Constants.SERVICE_RANKING);
+            ranking = rankingProperty instanceof Integer ? (Integer) rankingProperty : 0;
+            serviceId = getServiceId(reference);
+        }
+    }
+
+    /**
+     * orders ranks ascending, the preferred provider first
+     */
+    private static final Comparator<Rank> RANK_ORDER = new Comparator<Rank>() {
+        @Override
+        public int compare(Rank o1, Rank o2) {
+            if (o1.position != o2.position) {
+                return o1.position < o2.position ? -1 : 1;
+            }
+            if (o1.suspect != o2.suspect) {
+                return o1.suspect ? 1 : -1;
+            }
+            if (o1.loaded != o2.loaded) {
+                return o1.loaded ? -1 : 1;
+            }
+            int result = o2.version.compareTo(o1.version);
+            if (result != 0) {
+                return result;
+            }
+            // like ServiceReference.compareTo: higher ranking first, then the lower service id
+            if (o1.ranking != o2.ranking) {
+                return o1.ranking > o2.ranking ? -1 : 1;
+            }
+            return o1.serviceId < o2.serviceId ? -1 : o1.serviceId == o2.serviceId ? 0 : 1;
+        }
+    };
+
+    /**
+     * returns the key under which the decision for a lookup is cached. Lookups through different bundles get
+     * different keys, because the visible services depend on the bundle.
+     */
+    public static String getKey(BundleContext bundleContext, ProviderSelection selection, Filter filter) {
+        return bundleContext.getBundle().getBundleId() + "/" + selection + "/" + filter;
+    }
+
+    /**
+     * returns all services of the tracker, the preferred provider first. Providers that recently failed to load a
+     * class they claim to provide are moved to the end. If contexts are given, providers of earlier contexts come
+     * first.
+     */
+    public static ServiceReference[] order(ServiceTracker serviceTracker, ProviderSelection selection, String name,
+            List<String> contexts) {
+        ServiceReference[] references = serviceTracker.getServiceReferences();
+        if (references == null) {
+            return new ServiceReference[0];
+        }
+        if (references.length > 1) {
+            Rank[] ranks = new Rank[references.length];
+            for (int i = 0; i < references.length; i++) {
+                ranks[i] = new Rank(serviceTracker, selection, name, contexts, references[i]);
+            }
+            Arrays.sort(ranks, RANK_ORDER);
+            for (int i = 0; i < ranks.length; i++) {
+                references[i] = ranks[i].reference;
+            }
+        }
+        return references;
+    }
+
+    /**
+     * marks the provider as suspect for {@value #SUSPECT_MILLIS} ms, so other matching providers are preferred
+     */
+    public static void markSuspect(ServiceReference reference) {
+        SUSPECTS.put(getServiceId(reference), System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SUSPECT_MILLIS));
+    }
+
+    static boolean isSuspect(ServiceReference reference) {
+        if (SUSPECTS.isEmpty()) {
+            return false;
+        }
+        Long serviceId = getServiceId(reference);
+        Long until = SUSPECTS.get(serviceId);
+        if (until == null) {
+            return false;
+        }
+        if (until - System.nanoTime() <= 0) {
+            SUSPECTS.remove(serviceId, until);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * returns the provider selected for the given key, or null if there is none or the providers changed since
+     */
+    public static ServiceReference getCached(String key) {
+        if (!tracking) {
+            return null;
+        }
+        CachedSelection selection = SELECTIONS.get(key);
+        if (selection == null) {
+            return null;
+        }
+        if (selection.generation != GENERATION.get()) {
+            SELECTIONS.remove(key, selection);
+            return null;
+        }
+        return selection.reference;
+    }
+
+    /**
+     * returns the current generation of the provider set. It must be read before the candidate providers are
+     * collected, so a change during the lookup makes the cached decision stale.
+     */
+    public static long getGeneration() {
+        return GENERATION.get();
+    }
+
+    public static void cache(String key, ServiceReference reference, long generation) {
+        if (!tracking || generation != GENERATION.get()) {
+            return;
+        }
+        SELECTIONS.put(key, new CachedSelection(reference, generation));
+    }
+
+    /**
+     * returns the generation of the providers of the given class name. It changes whenever a ClassProvider providing
+     * the name is registered, modified or unregistered (and rarely on changes of other names with the same hash), so
+     * results derived from a single class name need not be discarded on every change of the providers.
+     */
+    public static long getGeneration(String name) {
+        return ALL_NAMES_GENERATION.get() + NAME_GENERATIONS.get(getStripe(name));
+    }
+
+    /**
+     * discards all cached decisions. Called whenever a ClassProvider is registered, modified or unregistered.
+     */
+    public static void invalidate() {
+        GENERATION.incrementAndGet();
+        ALL_NAMES_GENERATION.incrementAndGet();
+        SELECTIONS.clear();
+    }
+
+    /**
+     * like {@link #invalidate()}, but advances only the generations of the class names provided by the changed
+     * ClassProvider. The former names of a modified provider are unknown, so a modification advances all of them.
+     */
+    public static void invalidate(ServiceEvent event) {
+        Object names = event.getServiceReference().getProperty(Constants.PROVIDED_CLASSES_KEY);
+        if (event.getType() == ServiceEvent.MODIFIED || names == null) {
+            invalidate();
+            return;
+        }
+        GENERATION.incrementAndGet();
+        if (names instanceof Collection) {
+            for (Object name : (Collection<?>) names) {
+                NAME_GENERATIONS.incrementAndGet(getStripe(String.valueOf(name)));
+            }
+        } else if (names instanceof Object[]) {
+            for (Object name : (Object[]) names) {
+                NAME_GENERATIONS.incrementAndGet(getStripe(String.valueOf(name)));
+            }
+        } else {
+            NAME_GENERATIONS.incrementAndGet(getStripe(names.toString()));
+        }
+        SELECTIONS.clear();
+    }
+
+    /**
+     * returns whether the generation is updated on changes of the ClassProviders. Otherwise results derived from
+     * registered providers must not be cached.
+     */
+    public static boolean isTracking() {
+        return tracking;
+    }
+
+    static void setTracking(boolean tracking) {
+        ProviderSelector.tracking = tracking;
+        invalidate();
+    }
+
+    private static int getStripe(String name) {
+        return name.hashCode() & (NAME_STRIPES - 1);
+    }
+
+    private static Long getServiceId(ServiceReference reference) {
+        return (Long) reference.getProperty(org.osgi.framework.Constants.SERVICE_ID);
+    }
+
+    private static Version getVersion(ServiceReference reference) {
+        Object version = reference.getProperty(Constants.CLASS_VERSION_KEY);
+        if (version == null) {
+            return Version.emptyVersion;
+        }
+        try {
+            return Version.parseVersion(version.toString());
+        } catch (IllegalArgumentException e) {
+            return Version.emptyVersion;
+        }
+    }
+
+    private static boolean hasLoaded(ServiceTracker serviceTracker, ServiceReference reference, String name) {
+        Object service = serviceTracker.getService(reference);
+        return service instanceof ClassProviderImpl && ((ClassProviderImpl) service).hasLoaded(name);
+    }
+
+    private ProviderSelector() {
+    }
+
+}
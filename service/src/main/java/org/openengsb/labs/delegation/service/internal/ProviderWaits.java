@@ -0,0 +1,333 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.service.internal;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openengsb.labs.delegation.service.LookupRejectedException;
+import org.openengsb.labs.delegation.service.LookupRejectedException.Reason;
+import org.openengsb.labs.delegation.service.WaitStrategy;
+import org.openengsb.labs.delegation.service.internal.LookupDiagnostics.WaitingLookup;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.util.tracker.ServiceTracker;
+
+/**
+ * Bounds the waiting of lookups for providers that are not registered.
+ *
+ * The number of concurrently waiting lookups can be limited overall and per context. Lookups exceeding a limit are
+ * rejected with a {@link LookupRejectedException} instead of blocking. If waiting for a provider of a lookup times
+ * out, a circuit is opened for the class name in the lookup's contexts and version: further lookups of it are
+ * rejected for a while, regardless of the requesting bundle, after which a single lookup may wait again to probe
+ * whether a provider appears. Lookups whose provider is already registered are never rejected.
+ *
+ * How long a lookup waits is defined by its {@link WaitStrategy}. Unless the lookup sets one, the strategy is taken
+ * from the framework property {@value #WAIT_STRATEGY_PROPERTY}, suffixed with "." and the context to configure a
+ * single context. The property is only read when a lookup actually has to wait. Without a framework (e.g. before the
+ * delegation bundle is started) every lookup uses {@link WaitStrategy#FIXED_TIMEOUT}.
+ */
+public final class ProviderWaits {
+
+    public static final String MAX_WAITERS_PROPERTY = "org.openengsb.labs.delegation.wait.maxWaiters";
+    public static final String MAX_WAITERS_PER_CONTEXT_PROPERTY =
+        "org.openengsb.labs.delegation.wait.maxWaitersPerContext";
+    public static final String CIRCUIT_OPEN_MILLIS_PROPERTY = "org.openengsb.labs.delegation.wait.circuitOpenMillis";
+    public static final String WAIT_STRATEGY_PROPERTY = "org.openengsb.labs.delegation.wait.strategy";
+
+    static final int MAX_CIRCUITS = 10000;
+    static final long POLL_MILLIS = 100;
+
+    private static final ConcurrentMap<String, AtomicInteger> WAITERS_BY_CONTEXT =
+        new ConcurrentHashMap<String, AtomicInteger>();
+    private static final AtomicInteger WAITERS = new AtomicInteger();
+    private static final ConcurrentMap<String, Circuit> CIRCUITS = new ConcurrentHashMap<String, Circuit>();
+
+    private static volatile int maxWaiters;
+    private static volatile int maxWaitersPerContext;
+    private static volatile long circuitOpenMillis;
+    private static volatile BundleContext bundleContext;
+
+    private static final class Circuit {
+        private final long openUntil;
+        private final AtomicBoolean probing = new AtomicBoolean();
+
+        private Circuit(long openUntil) {
+            this.openUntil = openUntil;
+        }
+    }
+
+    /**
+     * reads the limits from the framework properties. A value of 0 (the default) disables the respective limit or the
+     * circuits.
+     */
+    static void configure(BundleContext context) {
+        bundleContext = context;
+        maxWaiters = getInteger(context, MAX_WAITERS_PROPERTY, 0);
+        maxWaitersPerContext = getInteger(context, MAX_WAITERS_PER_CONTEXT_PROPERTY, 0);
+        circuitOpenMillis = getInteger(context, CIRCUIT_OPEN_MILLIS_PROPERTY, 0);
+    }
+
+    static void setLimits(int maxWaiters, int maxWaitersPerContext, long circuitOpenMillis) {
+        ProviderWaits.maxWaiters = maxWaiters;
+        ProviderWaits.maxWaitersPerContext = maxWaitersPerContext;
+        ProviderWaits.circuitOpenMillis = circuitOpenMillis;
+    }
+
+    /**
+     * returns the configured strategy for lookups in the given contexts. The first context with a configured strategy
+     * wins, lookups without contexts use the default strategy.
+     */
+    public static WaitStrategy getWaitStrategy(List<String> contexts) {
+        BundleContext context = bundleContext;
+        if (context == null) {
+            return WaitStrategy.FIXED_TIMEOUT;
+        }
+        if (contexts != null) {
+            for (String delegationContext : contexts) {
+                WaitStrategy result = parseWaitStrategy(context.getProperty(WAIT_STRATEGY_PROPERTY + "."
+                    + delegationContext));
+                if (result != null) {
+                    return result;
+                }
+            }
+        }
+        WaitStrategy result = parseWaitStrategy(context.getProperty(WAIT_STRATEGY_PROPERTY));
+        return result != null ? result : WaitStrategy.FIXED_TIMEOUT;
+    }
+
+    /**
+     * returns a provider of the tracker, waiting for one to be registered if necessary.
+     *
+     * @param name the name of the class that is looked up
+     * @param contexts the contexts of the lookup, null if it is not restricted to a context
+     * @param version the version of the lookup, null if it is not restricted to a version
+     * @param timeout the maximum time to wait in milliseconds, 0 meaning no limit
+     * @param strategy defines whether the lookup waits for the whole timeout, null for the configured strategy
+     * @return the provider or null if none was registered within the timeout
+     * @throws LookupRejectedException if there is no provider and the lookup may not wait for one
+     */
+    public static Object waitForProvider(ServiceTracker serviceTracker, String name, List<String> contexts,
+            String version, long timeout, WaitStrategy strategy) throws InterruptedException, LookupRejectedException {
+        Object result = serviceTracker.getService();
+        if (result != null) {
+            return result;
+        }
+        String context = ContextChains.getLabel(contexts);
+        String key = getCircuitKey(name, context, version);
+        Circuit circuit = CIRCUITS.get(key);
+        if (circuit != null && (System.nanoTime() - circuit.openUntil < 0 || !circuit.probing.compareAndSet(false,
+            true))) {
+            throw new LookupRejectedException(name, Reason.CIRCUIT_OPEN);
+        }
+        boolean finished = false;
+        try {
+            result = waitWithinLimits(serviceTracker, name, contexts, context, version, timeout, strategy);
+            finished = true;
+        } finally {
+            if (!finished) {
+                releaseProbe(circuit);
+            }
+        }
+        if (result != null) {
+            CIRCUITS.remove(key);
+        } else {
+            openCircuit(key);
+        }
+        return result;
+    }
+
+    /**
+     * waits for a provider unless this exceeds the limits of waiting lookups
+     */
+    private static Object waitWithinLimits(ServiceTracker serviceTracker, String name, List<String> contexts,
+            String context, String version, long timeout, WaitStrategy strategy)
+        throws InterruptedException, LookupRejectedException {
+        AtomicInteger contextWaiters = getContextWaiters(context);
+        if (!acquire(WAITERS, maxWaiters)) {
+            throw new LookupRejectedException(name, Reason.TOO_MANY_WAITERS);
+        }
+        try {
+            if (!acquire(contextWaiters, maxWaitersPerContext)) {
+                throw new LookupRejectedException(name, Reason.TOO_MANY_WAITERS);
+            }
+            WaitStrategy waitStrategy = strategy != null ? strategy : getWaitStrategy(contexts);
+            WaitingLookup waiting = LookupDiagnostics.waitStarted(name, context, version);
+            long waitStart = DelegationStatistics.waiterBlocked();
+            try {
+                if (waitStrategy == WaitStrategy.STARTUP_AWARE && bundleContext != null) {
+                    return waitWhileStarting(serviceTracker, timeout);
+                }
+                return serviceTracker.waitForService(timeout);
+            } finally {
+                DelegationStatistics.waiterReleased(waitStart);
+                LookupDiagnostics.waitFinished(waiting);
+                contextWaiters.decrementAndGet();
+            }
+        } finally {
+            WAITERS.decrementAndGet();
+        }
+    }
+
+    /**
+     * identifies the circuit of a class name in the given context label and version, shared by all requesting bundles
+     */
+    private static String getCircuitKey(String name, String context, String version) {
+        return name + "/" + (context == null ? "" : context) + "/" + (version == null ? "" : version);
+    }
+
+    static void reset() {
+        CIRCUITS.clear();
+        setLimits(0, 0, 0);
+        bundleContext = null;
+    }
+
+    /**
+     * waits in slices of {@value #POLL_MILLIS} ms as long as startup activity may still register a provider
+     */
+    private static Object waitWhileStarting(ServiceTracker serviceTracker, long timeout)
+        throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (isStartingUp() || ScanProgress.isBundleStarting()) {
+            long slice = POLL_MILLIS;
+            if (timeout != 0) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return null;
+                }
+                slice = Math.min(slice, remaining);
+            }
+            Object result = serviceTracker.waitForService(slice);
+            if (result != null) {
+                return result;
+            }
+        }
+        // a provider may have been registered since the last check
+        return serviceTracker.getService();
+    }
+
+    /**
+     * returns whether the framework is still starting or the initially active bundles are still being scanned
+     */
+    private static boolean isStartingUp() {
+        BundleContext context = bundleContext;
+        if (context == null) {
+            return false;
+        }
+        if (!ScanProgress.isInitialScanFinished()) {
+            return true;
+        }
+        Bundle systemBundle = context.getBundle(0);
+        return systemBundle == null || systemBundle.getState() == Bundle.STARTING;
+    }
+
+    private static boolean acquire(AtomicInteger waiters, int limit) {
+        if (waiters.incrementAndGet() <= limit || limit <= 0) {
+            return true;
+        }
+        waiters.decrementAndGet();
+        return false;
+    }
+
+    private static void openCircuit(String key) {
+        long openMillis = circuitOpenMillis;
+        if (openMillis <= 0) {
+            CIRCUITS.remove(key);
+            return;
+        }
+        if (CIRCUITS.size() >= MAX_CIRCUITS) {
+            evictCircuits();
+        }
+        CIRCUITS.put(key, new Circuit(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(openMillis)));
+    }
+
+    /**
+     * removes the circuits that are no longer open, or the one closing first if all of them are still open
+     */
+    private static void evictCircuits() {
+        long now = System.nanoTime();
+        String closingFirst = null;
+        long closingFirstAt = 0;
+        for (Map.Entry<String, Circuit> entry : CIRCUITS.entrySet()) {
+            long openUntil = entry.getValue().openUntil;
+            if (now - openUntil >= 0) {
+                CIRCUITS.remove(entry.getKey(), entry.getValue());
+            } else if (closingFirst == null || openUntil - closingFirstAt < 0) {
+                closingFirst = entry.getKey();
+                closingFirstAt = openUntil;
+            }
+        }
+        if (CIRCUITS.size() >= MAX_CIRCUITS && closingFirst != null) {
+            CIRCUITS.remove(closingFirst);
+        }
+    }
+
+    /**
+     * allows another lookup to probe the circuit if this one did not finish waiting
+     */
+    private static void releaseProbe(Circuit circuit) {
+        if (circuit != null) {
+            circuit.probing.set(false);
+        }
+    }
+
+    private static AtomicInteger getContextWaiters(String context) {
+        String key = context == null ? DelegationStatistics.ANY_CONTEXT : context;
+        AtomicInteger waiters = WAITERS_BY_CONTEXT.get(key);
+        if (waiters == null) {
+            AtomicInteger newWaiters = new AtomicInteger();
+            waiters = WAITERS_BY_CONTEXT.putIfAbsent(key, newWaiters);
+            if (waiters == null) {
+                waiters = newWaiters;
+            }
+        }
+        return waiters;
+    }
+
+    private static WaitStrategy parseWaitStrategy(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return WaitStrategy.valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static int getInteger(BundleContext context, String property, int defaultValue) {
+        String value = context.getProperty(property);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private ProviderWaits() {
+    }
+
+}
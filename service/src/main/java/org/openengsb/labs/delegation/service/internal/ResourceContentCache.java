@@ -0,0 +1,115 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.service.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Content-addressed store for resource contents provided by {@link ResourceProviderImpl}s.
+ *
+ * Resources are hashed when they are first read. Providers serving byte-identical resources (e.g. two versions of the
+ * same bundle installed side by side) end up sharing the same byte-array. The store only keeps weak references, so the
+ * content is released as soon as no provider holds it anymore.
+ */
+final class ResourceContentCache {
+
+    private static final String DIGEST_ALGORITHM = "SHA-1";
+    private static final int BUFFER_SIZE = 4096;
+
+    private static final Map<String, WeakReference<byte[]>> CONTENTS = new HashMap<String, WeakReference<byte[]>>();
+
+    /**
+     * reads the content of the given URL and returns the shared copy of it.
+     */
+    static byte[] load(URL resource) throws IOException {
+        return intern(readFully(resource));
+    }
+
+    /**
+     * returns a byte-array with the same content as the given one. If identical content has been interned before, the
+     * existing array is returned.
+     */
+    static byte[] intern(byte[] content) {
+        String key = computeHash(content);
+        synchronized (CONTENTS) {
+            WeakReference<byte[]> reference = CONTENTS.get(key);
+            byte[] existing = reference == null ? null : reference.get();
+            if (existing != null && Arrays.equals(existing, content)) {
+                return existing;
+            }
+            if (existing == null) {
+                purgeCollectedEntries();
+            }
+            CONTENTS.put(key, new WeakReference<byte[]>(content));
+            return content;
+        }
+    }
+
+    private static void purgeCollectedEntries() {
+        Iterator<WeakReference<byte[]>> iterator = CONTENTS.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().get() == null) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static String computeHash(byte[] content) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(DIGEST_ALGORITHM + " is not supported by this JVM", e);
+        }
+        byte[] hash = digest.digest(content);
+        StringBuilder result = new StringBuilder(hash.length * 2 + 8);
+        for (byte b : hash) {
+            result.append(Character.forDigit((b >> 4) & 0xF, 16));
+            result.append(Character.forDigit(b & 0xF, 16));
+        }
+        return result.append(':').append(content.length).toString();
+    }
+
+    private static byte[] readFully(URL resource) throws IOException {
+        InputStream input = resource.openStream();
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            return output.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+
+    private ResourceContentCache() {
+    }
+
+}
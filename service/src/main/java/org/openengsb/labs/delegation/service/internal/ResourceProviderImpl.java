@@ -16,10 +16,15 @@
  */
 package org.openengsb.labs.delegation.service.internal;
 
+import java.io.IOException;
+import java.lang.ref.SoftReference;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.openengsb.labs.delegation.service.ResourceProvider;
 import org.osgi.framework.Bundle;
@@ -33,6 +38,7 @@ public class ResourceProviderImpl implements ResourceProvider {
     private Bundle bundle;
     private Set<String> resources;
     private Collection<URL> allResources;
+    private Map<String, SoftReference<byte[]>> contents = new ConcurrentHashMap<String, SoftReference<byte[]>>();
 
     public ResourceProviderImpl(Bundle bundle, Set<String> resources) {
 
@@ -49,6 +55,37 @@ public class ResourceProviderImpl implements ResourceProvider {
         return null;
     }
 
+    /**
+     * returns a read-only buffer containing the content of the resource, or null if the resource is not provided by
+     * this service. The content is cached softly and shared with other providers serving byte-identical resources.
+     */
+    public ByteBuffer loadResourceContent(String name) throws IOException {
+        byte[] content = loadContent(name);
+        return content == null ? null : ByteBuffer.wrap(content).asReadOnlyBuffer();
+    }
+
+    /**
+     * returns a read-only buffer containing the content of the given URL, shared with the providers serving
+     * byte-identical resources
+     */
+    public static ByteBuffer loadSharedContent(URL resource) throws IOException {
+        return ByteBuffer.wrap(ResourceContentCache.load(resource)).asReadOnlyBuffer();
+    }
+
+    byte[] loadContent(String name) throws IOException {
+        SoftReference<byte[]> reference = contents.get(name);
+        byte[] content = reference == null ? null : reference.get();
+        if (content == null) {
+            URL resource = loadResource(name);
+            if (resource == null) {
+                return null;
+            }
+            content = ResourceContentCache.load(resource);
+            contents.put(name, new SoftReference<byte[]>(content));
+        }
+        return content;
+    }
+
     @Override
     public Collection<URL> listResources() {
         if(allResources == null){
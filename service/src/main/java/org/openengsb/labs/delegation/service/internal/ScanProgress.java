@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.service.internal;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.osgi.framework.Bundle;
+
+/**
+ * Keeps track of the bundles that are starting or being scanned by the delegation bundle, and of whether the scan of
+ * the bundles that were active when it started is finished.
+ *
+ * A bundle is starting from its STARTING event until its scan is finished or it is stopped, so it may still register
+ * providers during that time. Bundles with a lazy activation policy are only counted once their activation starts.
+ */
+public final class ScanProgress {
+
+    private static final Set<Long> STARTING = Collections.synchronizedSet(new HashSet<Long>());
+
+    private static volatile boolean initialScanFinished;
+
+    static void bundleStarting(Bundle bundle) {
+        STARTING.add(bundle.getBundleId());
+    }
+
+    static void bundleScanStarted(Bundle bundle) {
+        STARTING.add(bundle.getBundleId());
+    }
+
+    static void bundleScanFinished(Bundle bundle) {
+        STARTING.remove(bundle.getBundleId());
+    }
+
+    /**
+     * called when the bundle stopped or was uninstalled, e.g. because its activator failed while starting
+     */
+    static void bundleStopped(Bundle bundle) {
+        STARTING.remove(bundle.getBundleId());
+    }
+
+    /**
+     * returns whether any bundle is starting or being scanned right now, so providers may not be registered yet
+     */
+    public static boolean isBundleStarting() {
+        return !STARTING.isEmpty();
+    }
+
+    static void initialScanFinished() {
+        initialScanFinished = true;
+    }
+
+    public static boolean isInitialScanFinished() {
+        return initialScanFinished;
+    }
+
+    static void reset() {
+        initialScanFinished = false;
+        STARTING.clear();
+    }
+
+    private ScanProgress() {
+    }
+
+}
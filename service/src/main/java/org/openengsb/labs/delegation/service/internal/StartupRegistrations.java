@@ -0,0 +1,179 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.service.internal;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registers the provider services of bundles. While the initial bundles are scanned at startup, registrations can be
+ * collected and published in one burst afterwards, so the service listeners (including the trackers of pending
+ * lookups) are not notified for every single bundle.
+ *
+ * Every publication increments a generation counter. Lookups started during the batch wait for the next generation
+ * instead of tracking the registrations one by one, so they see all providers of the initial scan at once.
+ */
+public final class StartupRegistrations {
+
+    /**
+     * framework property enabling batched registration during the initial scan
+     */
+    public static final String BATCH_PROPERTY = "org.openengsb.labs.delegation.startup.batch";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StartupRegistrations.class);
+
+    private static final Object LOCK = new Object();
+
+    private static final class PendingRegistration {
+        private final Bundle bundle;
+        private final String className;
+        private final Object service;
+        private final Dictionary<String, ?> properties;
+
+        private PendingRegistration(Bundle bundle, String className, Object service,
+                Dictionary<String, ?> properties) {
+            this.bundle = bundle;
+            this.className = className;
+            this.service = service;
+            this.properties = properties;
+        }
+    }
+
+    private static volatile boolean batching;
+    private static Thread batchingThread;
+    private static long generation;
+    private static List<PendingRegistration> pending = new ArrayList<PendingRegistration>();
+
+    /**
+     * starts collecting registrations until {@link #publish()} is called by the same thread
+     */
+    public static void begin() {
+        synchronized (LOCK) {
+            batching = true;
+            batchingThread = Thread.currentThread();
+        }
+    }
+
+    /**
+     * registers the service in the name of the given bundle, or defers the registration if a batch is active
+     */
+    public static void register(Bundle bundle, String className, Object service, Dictionary<String, ?> properties) {
+        if (batching) {
+            synchronized (LOCK) {
+                if (batching) {
+                    pending.add(new PendingRegistration(bundle, className, service, properties));
+                    return;
+                }
+            }
+        }
+        bundle.getBundleContext().registerService(className, service, properties);
+    }
+
+    /**
+     * registers all deferred services, ends the batch and wakes up all lookups waiting for it
+     *
+     * @return the number of services registered
+     */
+    public static int publish() {
+        int count = 0;
+        while (true) {
+            List<PendingRegistration> registrations;
+            synchronized (LOCK) {
+                if (pending.isEmpty()) {
+                    batching = false;
+                    batchingThread = null;
+                    generation++;
+                    LOCK.notifyAll();
+                    return count;
+                }
+                // registrations arriving while these are published are collected for the next round
+                registrations = pending;
+                pending = new ArrayList<PendingRegistration>();
+            }
+            for (PendingRegistration registration : registrations) {
+                if (doRegister(registration)) {
+                    count++;
+                }
+            }
+        }
+    }
+
+    private static boolean doRegister(PendingRegistration registration) {
+        BundleContext bundleContext = registration.bundle.getBundleContext();
+        if (bundleContext == null) {
+            LOGGER.debug("bundle {} was stopped before its providers were published", registration.bundle);
+            return false;
+        }
+        try {
+            bundleContext.registerService(registration.className, registration.service, registration.properties);
+            return true;
+        } catch (IllegalStateException e) {
+            LOGGER.debug("bundle {} was stopped before its providers were published", registration.bundle);
+            return false;
+        }
+    }
+
+    public static long getGeneration() {
+        synchronized (LOCK) {
+            return generation;
+        }
+    }
+
+    /**
+     * blocks until the current batch is published, at most for the given time (0 means no limit). Returns immediately
+     * if there is no batch or if called by the thread performing the batch. If the thread is interrupted, the
+     * interrupt flag is restored and the method returns.
+     */
+    public static void awaitPublication(long timeoutMillis) {
+        if (!batching) {
+            return;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (LOCK) {
+            if (Thread.currentThread() == batchingThread) {
+                return;
+            }
+            long awaitedGeneration = generation + 1;
+            try {
+                while (batching && generation < awaitedGeneration) {
+                    if (timeoutMillis == 0) {
+                        LOCK.wait();
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(LOCK, remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private StartupRegistrations() {
+    }
+
+}
@@ -0,0 +1,221 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.service.internal;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Indexes the type hierarchy and the annotations of provided classes, so subtypes and annotated classes can be found
+ * without loading any class.
+ *
+ * The class files of a bundle are read on the first query for subtypes after the bundle was registered. Superclasses
+ * and interfaces that are contained in the same bundle are read as well (even if they are not provided), so subtypes
+ * are also found through intermediate types. Annotations are collected by the {@link BundleHandler} while scanning the
+ * bundle.
+ */
+public final class TypeIndex {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TypeIndex.class);
+
+    private static final Map<BundleRevisionKey, IndexedBundle> BUNDLES =
+        new ConcurrentHashMap<BundleRevisionKey, IndexedBundle>();
+
+    private static final class IndexedBundle {
+        private final Bundle bundle;
+        private final Map<String, Set<String>> contextsByClass;
+        private final Map<String, Set<String>> annotatedClasses;
+        private volatile Map<String, List<String>> directSubtypes;
+
+        private IndexedBundle(Bundle bundle, Map<String, Set<String>> contextsByClass,
+                Map<String, Set<String>> annotatedClasses) {
+            this.bundle = bundle;
+            this.contextsByClass = contextsByClass;
+            this.annotatedClasses = annotatedClasses;
+        }
+
+        private synchronized Map<String, List<String>> getDirectSubtypes() {
+            if (directSubtypes == null) {
+                directSubtypes = readHierarchy();
+            }
+            return directSubtypes;
+        }
+
+        private Map<String, List<String>> readHierarchy() {
+            Map<String, List<String>> result = new HashMap<String, List<String>>();
+            Set<String> visited = new HashSet<String>();
+            Queue<String> pending = new LinkedList<String>(contextsByClass.keySet());
+            while (!pending.isEmpty()) {
+                String classname = pending.poll();
+                if (!visited.add(classname)) {
+                    continue;
+                }
+                ClassFileInfo info = readClassFile(classname);
+                if (info == null) {
+                    continue;
+                }
+                for (String supertype : info.getDirectSupertypes()) {
+                    List<String> subtypes = result.get(supertype);
+                    if (subtypes == null) {
+                        subtypes = new ArrayList<String>();
+                        result.put(supertype, subtypes);
+                    }
+                    subtypes.add(classname);
+                    pending.add(supertype);
+                }
+            }
+            return result;
+        }
+
+        private ClassFileInfo readClassFile(String classname) {
+            URL entry = bundle.getEntry(classname.replace('.', '/') + ".class");
+            if (entry == null) {
+                return null;
+            }
+            try {
+                return ClassFileInfo.read(entry.openStream());
+            } catch (IOException e) {
+                LOGGER.warn("could not read class file of " + classname + " in bundle " + bundle, e);
+                return null;
+            } catch (IllegalStateException e) {
+                // the bundle was uninstalled in the meantime
+                return null;
+            }
+        }
+    }
+
+    /**
+     * adds the provided classes of the bundle and their annotations to the index, replacing earlier entries of the
+     * bundle
+     *
+     * @param providedClasses the names of the provided classes by context ("" for providers without context)
+     * @param annotatedClasses the names of the provided classes by the type names of their annotations
+     */
+    public static void addBundle(Bundle bundle, Map<String, Set<String>> providedClasses,
+            Map<String, Set<String>> annotatedClasses) {
+        Map<String, Set<String>> contextsByClass = new HashMap<String, Set<String>>();
+        for (Map.Entry<String, Set<String>> entry : providedClasses.entrySet()) {
+            for (String classname : entry.getValue()) {
+                Set<String> contexts = contextsByClass.get(classname);
+                if (contexts == null) {
+                    contexts = new HashSet<String>();
+                    contextsByClass.put(classname, contexts);
+                }
+                contexts.add(entry.getKey());
+            }
+        }
+        removeBundle(bundle);
+        if (contextsByClass.isEmpty()) {
+            return;
+        }
+        Map<String, Set<String>> annotations = new HashMap<String, Set<String>>();
+        for (Map.Entry<String, Set<String>> entry : annotatedClasses.entrySet()) {
+            annotations.put(entry.getKey(), new HashSet<String>(entry.getValue()));
+        }
+        BUNDLES.put(BundleRevisionKey.of(bundle), new IndexedBundle(bundle, contextsByClass, annotations));
+    }
+
+    /**
+     * removes all revisions of the bundle from the index
+     */
+    public static void removeBundle(Bundle bundle) {
+        Iterator<BundleRevisionKey> iterator = BUNDLES.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isRevisionOf(bundle)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * returns the names of all provided classes in the given context that extend or implement the given type, directly
+     * or indirectly. If the context is null, classes of all contexts are returned.
+     */
+    public static Set<String> findSubtypes(String typeName, String context) {
+        Collection<IndexedBundle> bundles = new ArrayList<IndexedBundle>(BUNDLES.values());
+        Set<String> result = new HashSet<String>();
+        Set<String> visited = new HashSet<String>();
+        Queue<String> pending = new LinkedList<String>();
+        pending.add(typeName);
+        while (!pending.isEmpty()) {
+            String type = pending.poll();
+            for (IndexedBundle indexedBundle : bundles) {
+                List<String> subtypes = indexedBundle.getDirectSubtypes().get(type);
+                if (subtypes == null) {
+                    continue;
+                }
+                for (String subtype : subtypes) {
+                    if (isProvidedInContext(indexedBundle, subtype, context)) {
+                        result.add(subtype);
+                    }
+                    if (visited.add(subtype)) {
+                        pending.add(subtype);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * returns the names of all provided classes in the given context that are annotated with the given annotation type.
+     * If the context is null, classes of all contexts are returned.
+     */
+    public static Set<String> findAnnotated(String annotationType, String context) {
+        Set<String> result = new HashSet<String>();
+        for (IndexedBundle indexedBundle : BUNDLES.values()) {
+            Set<String> annotated = indexedBundle.annotatedClasses.get(annotationType);
+            if (annotated == null) {
+                continue;
+            }
+            for (String classname : annotated) {
+                if (isProvidedInContext(indexedBundle, classname, context)) {
+                    result.add(classname);
+                }
+            }
+        }
+        return result;
+    }
+
+    static void clear() {
+        BUNDLES.clear();
+    }
+
+    private static boolean isProvidedInContext(IndexedBundle indexedBundle, String classname, String context) {
+        Set<String> contexts = indexedBundle.contextsByClass.get(classname);
+        return contexts != null && (context == null || contexts.contains(context));
+    }
+
+    private TypeIndex() {
+    }
+
+}
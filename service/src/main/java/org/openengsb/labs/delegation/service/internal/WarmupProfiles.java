@@ -0,0 +1,246 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.service.internal;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers which classes were actually loaded through delegation, per provider bundle and version.
+ *
+ * The profiles are stored in a directory (usually the data area of the delegation bundle), one file per bundle
+ * version with one class name per line. When a provider registers again, the classes of its profile are preloaded in
+ * the background using {@link ClassPreloader}. Profiles are read and written only by the preloader thread (and on
+ * shutdown), never while a provider is created or a bundle event is handled.
+ */
+public final class WarmupProfiles {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WarmupProfiles.class);
+
+    private static final String ENCODING = "UTF-8";
+
+    private static final ConcurrentMap<BundleRevisionKey, Profile> PROFILES =
+        new ConcurrentHashMap<BundleRevisionKey, Profile>();
+
+    private static volatile File storage;
+
+    /**
+     * the classes loaded from one bundle revision, stored under the key of the bundle version
+     */
+    private static final class Profile {
+        private final String key;
+        private final Set<String> classes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        private Profile(String key) {
+            this.key = key;
+        }
+    }
+
+    public static void setStorage(File directory) {
+        storage = directory;
+    }
+
+    /**
+     * returns the (modifiable, thread-safe) set of classes that were loaded from the given bundle revision through
+     * delegation. Profiles stored by earlier runs are not read here.
+     */
+    public static Set<String> getProfile(Bundle bundle) {
+        BundleRevisionKey revision = BundleRevisionKey.of(bundle);
+        Profile profile = PROFILES.get(revision);
+        if (profile == null) {
+            Profile newProfile = new Profile(DelegationStatistics.getBundleKey(bundle));
+            profile = PROFILES.putIfAbsent(revision, newProfile);
+            if (profile == null) {
+                profile = newProfile;
+            }
+        }
+        return profile.classes;
+    }
+
+    /**
+     * preloads all classes from the bundle's profile that are contained in providedClasses in the background
+     */
+    public static void warmUp(Bundle bundle, Collection<String> providedClasses) {
+        ClassPreloader.preloadProfile(bundle, providedClasses);
+    }
+
+    /**
+     * returns the classes of the stored and the current profile of the bundle that are contained in providedClasses.
+     * Reads the storage directory.
+     */
+    static List<String> getProfiledClasses(Bundle bundle, Collection<String> providedClasses) {
+        Set<String> profile = new LinkedHashSet<String>(readProfile(DelegationStatistics.getBundleKey(bundle)));
+        Profile current = PROFILES.get(BundleRevisionKey.of(bundle));
+        if (current != null) {
+            profile.addAll(current.classes);
+        }
+        List<String> classes = new ArrayList<String>();
+        for (String name : profile) {
+            if (providedClasses.contains(name)) {
+                classes.add(name);
+            }
+        }
+        if (!classes.isEmpty()) {
+            LOGGER.info("warming up {} classes of bundle {}", classes.size(), bundle.getSymbolicName());
+        }
+        return classes;
+    }
+
+    /**
+     * writes the profile of the given bundle to the storage directory, merged with the stored one
+     */
+    public static void save(Bundle bundle) {
+        Profile profile = PROFILES.get(BundleRevisionKey.of(bundle));
+        if (profile != null) {
+            writeProfile(profile.key, profile.classes);
+        }
+    }
+
+    /**
+     * like {@link #save(Bundle)}, but writes the profile on the preloader thread
+     */
+    public static void saveLater(Bundle bundle) {
+        final Profile profile = PROFILES.get(BundleRevisionKey.of(bundle));
+        if (profile == null || profile.classes.isEmpty()) {
+            return;
+        }
+        ClassPreloader.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeProfile(profile.key, profile.classes);
+            }
+        });
+    }
+
+    /**
+     * drops the in-memory profiles of all revisions of the bundle. Save them before, if they should be kept.
+     */
+    public static void removeBundle(Bundle bundle) {
+        Iterator<BundleRevisionKey> iterator = PROFILES.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isRevisionOf(bundle)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public static void saveAll() {
+        for (Profile profile : PROFILES.values()) {
+            writeProfile(profile.key, profile.classes);
+        }
+    }
+
+    static void clear() {
+        PROFILES.clear();
+    }
+
+    private static Collection<String> readProfile(String key) {
+        File file = getFile(key);
+        if (file == null || !file.isFile()) {
+            return Collections.emptySet();
+        }
+        List<String> result = new ArrayList<String>();
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.length() > 0) {
+                        result.add(line);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("could not read warm-up profile " + file, e);
+        }
+        return result;
+    }
+
+    private static synchronized void writeProfile(String key, Set<String> profile) {
+        File file = getFile(key);
+        if (file == null || profile.isEmpty()) {
+            return;
+        }
+        Set<String> merged = new LinkedHashSet<String>(readProfile(key));
+        merged.addAll(profile);
+        file.getParentFile().mkdirs();
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            BufferedWriter writer =
+                new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), ENCODING));
+            try {
+                for (String name : merged) {
+                    writer.write(name);
+                    writer.newLine();
+                }
+            } finally {
+                writer.close();
+            }
+            replace(tempFile, file);
+        } catch (IOException e) {
+            LOGGER.warn("could not write warm-up profile " + file, e);
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * renames the completely written temporary file to the profile, so an interrupted write never leaves a truncated
+     * profile behind
+     */
+    private static void replace(File tempFile, File file) throws IOException {
+        if (tempFile.renameTo(file)) {
+            return;
+        }
+        // some platforms do not rename onto existing files
+        if (!file.delete() || !tempFile.renameTo(file)) {
+            throw new IOException("could not replace " + file + " by " + tempFile);
+        }
+    }
+
+    private static File getFile(String key) {
+        File directory = storage;
+        if (directory == null) {
+            return null;
+        }
+        return new File(directory, key.replaceAll("[^A-Za-z0-9._-]", "_") + ".profile");
+    }
+
+    private WarmupProfiles() {
+    }
+
+}
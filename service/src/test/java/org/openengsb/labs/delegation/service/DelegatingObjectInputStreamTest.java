@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.labs.delegation.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class DelegatingObjectInputStreamTest {
+
+    public interface Marker {
+    }
+
+    private static class StubHandler implements InvocationHandler, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            return null;
+        }
+    }
+
+    /**
+     * helper that records its lookups and never finds a provider
+     */
+    private static class RecordingHelper extends DelegatedClassLoadingHelper {
+        private final List<String> lookups = new ArrayList<String>();
+
+        public RecordingHelper() {
+            super(null);
+        }
+
+        @Override
+        public Class<?> loadClass(String name, String context, String version) throws ClassNotFoundException {
+            lookups.add(name);
+            throw new ClassNotFoundException(name);
+        }
+    }
+
+    @Test
+    public void readPlatformObject_shouldNotLookUpProvider() throws Exception {
+        ObjectName objectName = new ObjectName("org.example:type=Test");
+        RecordingHelper helper = new RecordingHelper();
+
+        Object result = new DelegatingObjectInputStream(serialize(objectName), helper).readObject();
+
+        assertEquals(objectName, result);
+        assertTrue(helper.lookups.isEmpty());
+    }
+
+    @Test
+    public void readProxiesWithInterfacesOfDifferentClassloaders_shouldReuseProxyClass() throws Exception {
+        Object proxy = Proxy.newProxyInstance(Marker.class.getClassLoader(),
+            new Class<?>[]{ Runnable.class, Marker.class }, new StubHandler());
+
+        Object first = new DelegatingObjectInputStream(serialize(proxy), new RecordingHelper()).readObject();
+        Object second = new DelegatingObjectInputStream(serialize(proxy), new RecordingHelper()).readObject();
+
+        assertSame(first.getClass(), second.getClass());
+    }
+
+    private static ByteArrayInputStream serialize(Object object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+
+}
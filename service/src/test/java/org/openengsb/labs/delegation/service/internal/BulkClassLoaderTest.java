@@ -0,0 +1,59 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.labs.delegation.service.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+public class BulkClassLoaderTest {
+
+    @Test
+    public void loadManyClasses_shouldReportFailuresInAggregate() throws Exception {
+        List<String> names = new ArrayList<String>(StubBundles.createClassNames("org.example.missing", 1000));
+        names.add(String.class.getName());
+        names.add(List.class.getName());
+        Bundle bundle = StubBundles.createBundle(Collections.<String> emptyList(), null);
+
+        BulkClassLoader.Result result = BulkClassLoader.loadClasses(bundle, names);
+
+        assertEquals(2, result.getClasses().size());
+        assertTrue(result.getClasses().contains(String.class));
+        assertEquals(1000, result.getFailures().size());
+        assertTrue(result.getFailures().get("org.example.missing.GeneratedClass0") instanceof ClassNotFoundException);
+    }
+
+    @Test
+    public void loadFewClasses_shouldLoadAllClasses() throws Exception {
+        Bundle bundle = StubBundles.createBundle(Collections.<String> emptyList(), null);
+
+        BulkClassLoader.Result result = BulkClassLoader.loadClasses(bundle,
+            Arrays.asList(String.class.getName(), List.class.getName()));
+
+        assertEquals(2, result.getClasses().size());
+        assertTrue(result.getFailures().isEmpty());
+    }
+
+}
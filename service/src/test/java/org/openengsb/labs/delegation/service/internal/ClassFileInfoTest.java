@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.labs.delegation.service.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.openengsb.labs.delegation.service.ClassProvider;
+import org.openengsb.labs.delegation.service.LoadingPolicy;
+import org.openengsb.labs.delegation.service.Provide;
+
+public class ClassFileInfoTest {
+
+    @Provide(context = { "foo", "bar" }, alias = "annotated", loading = LoadingPolicy.EAGER)
+    @Deprecated
+    private static class AnnotatedClass {
+        @Deprecated
+        private int field;
+
+        @Deprecated
+        public int getField() {
+            return field;
+        }
+    }
+
+    @Test
+    public void readClassFile_shouldReturnSupertypes() throws Exception {
+        ClassFileInfo info = ClassFileInfo.read(openClassFile(ClassProviderWithAliases.class));
+
+        assertEquals(ClassProviderWithAliases.class.getName(), info.getName());
+        assertEquals(ClassProviderImpl.class.getName(), info.getSuperName());
+        assertEquals(0, info.getInterfaces().size());
+    }
+
+    @Test
+    public void readClassFileWithInterface_shouldReturnInterface() throws Exception {
+        ClassFileInfo info = ClassFileInfo.read(openClassFile(ClassProviderImpl.class));
+
+        assertEquals(Arrays.asList(Object.class.getName(), ClassProvider.class.getName()),
+            info.getDirectSupertypes());
+    }
+
+    @Test
+    public void readInterfaceFile_shouldReturnObjectAsSuperclass() throws Exception {
+        ClassFileInfo info = ClassFileInfo.read(openClassFile(ClassProvider.class));
+
+        assertEquals(Object.class.getName(), info.getSuperName());
+    }
+
+    @Test
+    public void readObjectClassFile_shouldReturnNoSuperclass() throws Exception {
+        ClassFileInfo info = ClassFileInfo.read(ClassLoader.getSystemResourceAsStream("java/lang/Object.class"));
+
+        assertNull(info.getSuperName());
+    }
+
+    @Test
+    public void readClassFileWithAnnotations_shouldReturnClassAnnotations() throws Exception {
+        ClassFileInfo info = ClassFileInfo.read(openClassFile(AnnotatedClass.class), true);
+
+        assertEquals(Arrays.asList(Provide.class.getName(), Deprecated.class.getName()), info.getAnnotations());
+        assertEquals(Object.class.getName(), info.getSuperName());
+    }
+
+    @Test
+    public void readClassFileWithoutAnnotations_shouldReturnNoAnnotations() throws Exception {
+        ClassFileInfo info = ClassFileInfo.read(openClassFile(AnnotatedClass.class));
+
+        assertEquals(0, info.getAnnotations().size());
+    }
+
+    @Test(expected = IOException.class)
+    public void readOtherFile_shouldFail() throws Exception {
+        ClassFileInfo.read(new ByteArrayInputStream(new byte[]{ 1, 2, 3, 4, 5, 6 }));
+    }
+
+    private static InputStream openClassFile(Class<?> clazz) {
+        return clazz.getResourceAsStream("/" + clazz.getName().replace('.', '/') + ".class");
+    }
+
+}
@@ -0,0 +1,41 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openengsb.labs.delegation.service.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.openengsb.labs.delegation.service.Constants;
+
+public class ContextChainsTest {
+
+    @Test
+    public void escape_shouldEscapeFilterCharacters() throws Exception {
+        assertEquals("a\\(b\\)\\*c\\\\d", ContextChains.escape("a(b)*c\\d"));
+    }
+
+    @Test
+    public void createFilterWithSpecialCharacters_shouldMatchLiterally() throws Exception {
+        String filter = ContextChains.createFilter(Arrays.asList("te*st"), "foo.Bar(1)");
+
+        assertEquals(String.format("(|(%s=te\\*st)(%s=te\\*st:foo.Bar\\(1\\)))", Constants.DELEGATION_CONTEXT_KEY,
+            Constants.CONTEXT_CLASSES_KEY), filter);
+    }
+
+}
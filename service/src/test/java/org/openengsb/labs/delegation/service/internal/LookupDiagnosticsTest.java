@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.labs.delegation.service.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+import org.openengsb.labs.delegation.service.internal.LookupDiagnostics.WaitingLookup;
+
+public class LookupDiagnosticsTest {
+
+    @After
+    public void tearDown() throws Exception {
+        LookupDiagnostics.resetMisses();
+    }
+
+    @Test
+    public void waitStarted_shouldListLookupUntilFinished() throws Exception {
+        WaitingLookup first = LookupDiagnostics.waitStarted("foo.Bar", "ctx", "1.0.0");
+        Thread.sleep(5);
+        WaitingLookup second = LookupDiagnostics.waitStarted("foo.Baz", null, null);
+
+        List<WaitingLookup> waiting = LookupDiagnostics.getWaitingLookups();
+        assertEquals(2, waiting.size());
+        assertEquals(first, waiting.get(0));
+        assertEquals(Thread.currentThread().getId(), waiting.get(0).getThreadId());
+        assertTrue(first.toString().startsWith("foo.Bar context=ctx version=1.0.0 waiting "));
+        assertTrue(LookupDiagnostics.logDump(10).contains("foo.Baz waiting "));
+        assertTrue(LookupDiagnostics.describeWaitingLookups()[1].startsWith("foo.Baz waiting "));
+
+        LookupDiagnostics.waitFinished(first);
+        LookupDiagnostics.waitFinished(second);
+        assertTrue(LookupDiagnostics.getWaitingLookups().isEmpty());
+    }
+
+    @Test
+    public void lookupMissed_shouldReturnMostFrequentMissesFirst() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            LookupDiagnostics.lookupMissed("foo.Bar", "ctx", null);
+        }
+        LookupDiagnostics.lookupMissed("foo.Baz", null, null);
+        LookupDiagnostics.lookupMissed("foo.Baz", null, null);
+        LookupDiagnostics.lookupMissed("foo.Qux", null, null);
+
+        Map<String, Integer> misses = LookupDiagnostics.getFrequentMisses(2);
+
+        List<String> names = new ArrayList<String>(misses.keySet());
+        assertEquals(2, names.size());
+        assertEquals("foo.Bar context=ctx", names.get(0));
+        assertEquals(Integer.valueOf(3), misses.get("foo.Bar context=ctx"));
+        assertEquals(Integer.valueOf(2), misses.get("foo.Baz"));
+    }
+
+    @Test
+    public void lookupMissed_shouldOnlyKeepRecentMisses() throws Exception {
+        LookupDiagnostics.lookupMissed("foo.Old", null, null);
+        for (int i = 0; i < LookupDiagnostics.RECENT_MISSES; i++) {
+            LookupDiagnostics.lookupMissed("foo.Bar", null, null);
+        }
+
+        Map<String, Integer> misses = LookupDiagnostics.getFrequentMisses(10);
+
+        assertEquals(1, misses.size());
+        assertEquals(Integer.valueOf(LookupDiagnostics.RECENT_MISSES), misses.get("foo.Bar"));
+    }
+
+    @Test
+    public void getFrequentMissesWithNegativeCount_shouldReturnNone() throws Exception {
+        LookupDiagnostics.lookupMissed("foo.Bar", null, null);
+
+        assertTrue(LookupDiagnostics.getFrequentMisses(-1).isEmpty());
+    }
+
+}
@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.labs.delegation.service.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.openengsb.labs.delegation.service.DelegationEventListener.LookupOutcome;
+
+public class LookupTraceTest {
+
+    @Test
+    public void writeAndReadTrace_shouldReturnSameEntries() throws Exception {
+        List<LookupTrace.Entry> entries = Arrays.asList(
+            new LookupTrace.Entry(1000, "foo.Bar", null, null, LookupOutcome.FOUND, 20000),
+            new LookupTrace.Entry(500, "foo.Bar", "ctx", "1.0.0", LookupOutcome.NOT_FOUND, 80000),
+            new LookupTrace.Entry(5000000000L, "foo.Baz", "ctx", null, LookupOutcome.TIMEOUT, 30000000000L));
+
+        List<LookupTrace.Entry> result = LookupTrace.read(new ByteArrayInputStream(write(entries)));
+
+        assertEquals(entries.size(), result.size());
+        for (int i = 0; i < entries.size(); i++) {
+            LookupTrace.Entry expected = entries.get(i);
+            LookupTrace.Entry actual = result.get(i);
+            assertEquals(expected.getOffsetNanos(), actual.getOffsetNanos());
+            assertEquals(expected.getName(), actual.getName());
+            assertEquals(expected.getContext(), actual.getContext());
+            assertEquals(expected.getVersion(), actual.getVersion());
+            assertEquals(expected.getOutcome(), actual.getOutcome());
+            assertEquals(expected.getDurationNanos(), actual.getDurationNanos());
+        }
+        assertNull(result.get(0).getContext());
+    }
+
+    @Test
+    public void readTruncatedTrace_shouldReturnCompleteEntries() throws Exception {
+        byte[] trace = write(Arrays.asList(
+            new LookupTrace.Entry(1000, "foo.Bar", null, null, LookupOutcome.FOUND, 20000),
+            new LookupTrace.Entry(2000, "foo.Bar", null, null, LookupOutcome.FOUND, 20000)));
+
+        List<LookupTrace.Entry> result =
+            LookupTrace.read(new ByteArrayInputStream(Arrays.copyOf(trace, trace.length - 1)));
+
+        assertEquals(1, result.size());
+    }
+
+    @Test(expected = IOException.class)
+    public void readOtherFile_shouldFail() throws Exception {
+        LookupTrace.read(new ByteArrayInputStream("not a trace".getBytes("UTF-8")));
+    }
+
+    private static byte[] write(List<LookupTrace.Entry> entries) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LookupTrace.Writer writer = new LookupTrace.Writer(out, System.currentTimeMillis());
+        for (LookupTrace.Entry entry : entries) {
+            writer.write(entry);
+        }
+        writer.close();
+        return out.toByteArray();
+    }
+
+}
@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.labs.delegation.service.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+public class PropertyAccessorsTest {
+
+    public static class BaseBean {
+        private String id;
+
+        public String getId() {
+            return id;
+        }
+
+        public void setId(String id) {
+            this.id = id;
+        }
+    }
+
+    public static class DerivedBean extends BaseBean {
+        private boolean active;
+        private int count;
+
+        public boolean isActive() {
+            return active;
+        }
+
+        public void setActive(boolean active) {
+            this.active = active;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public void setCount(String count) {
+            this.count = Integer.parseInt(count);
+        }
+
+        public void setCount(int count) {
+            this.count = count;
+        }
+
+        public String getURL() {
+            return "http://localhost";
+        }
+    }
+
+    @Test
+    public void collectAccessors_shouldIncludeInheritedProperties() throws Exception {
+        PropertyAccessors accessors = PropertyAccessors.forClass(DerivedBean.class);
+
+        assertEquals(new HashSet<String>(Arrays.asList("id", "active", "count", "URL")),
+            accessors.getPropertyNames());
+        assertEquals(BaseBean.class.getMethod("getId"), accessors.getGetter("id"));
+        assertEquals(DerivedBean.class.getMethod("isActive"), accessors.getGetter("active"));
+        assertNull(accessors.getSetter("URL"));
+    }
+
+    @Test
+    public void collectAccessorsWithOverloadedSetter_shouldPreferSetterMatchingGetter() throws Exception {
+        PropertyAccessors accessors = PropertyAccessors.forClass(DerivedBean.class);
+
+        assertEquals(DerivedBean.class.getMethod("setCount", int.class), accessors.getSetter("count"));
+    }
+
+    @Test
+    public void collectAccessorsTwice_shouldReturnCachedAccessors() throws Exception {
+        assertSame(PropertyAccessors.forClass(BaseBean.class), PropertyAccessors.forClass(BaseBean.class));
+    }
+
+}
@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.labs.delegation.service.internal;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+import org.openengsb.labs.delegation.service.Constants;
+import org.openjdk.jol.info.GraphLayout;
+import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the heap retained by registered providers and fails when it exceeds the configured budgets.
+ *
+ * Budgets are given in bytes and can be overridden using the system properties
+ * "delegation.footprint.budget.&lt;name&gt;".
+ */
+public class ProviderFootprintTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProviderFootprintTest.class);
+
+    private static final int CLASS_COUNT = 10000;
+    private static final String PACKAGE_NAME = "org.example.footprint";
+
+    private Bundle bundle;
+
+    @After
+    public void tearDown() throws Exception {
+        if (bundle != null) {
+            BundleHandler.release(bundle);
+        }
+    }
+
+    @Test
+    public void classProvider_shouldStayWithinBudgetPerClassName() throws Exception {
+        List<String> names = StubBundles.createClassNames(PACKAGE_NAME, CLASS_COUNT);
+        bundle = StubBundles.createBundle(names, null);
+
+        ClassProviderImpl provider = new ClassProviderImpl(bundle, names);
+
+        long retained = measureRetained(provider, bundle, names);
+        assertWithinBudget("classProviderPerClassName", retained / CLASS_COUNT, 80);
+    }
+
+    @Test
+    public void classProviderWithAliases_shouldStayWithinBudgetPerClassName() throws Exception {
+        List<String> names = StubBundles.createClassNames(PACKAGE_NAME, CLASS_COUNT);
+        List<String> aliasNames = StubBundles.createClassNames("alias", CLASS_COUNT / 10);
+        bundle = StubBundles.createBundle(names, null);
+        Map<String, String> aliases = new HashMap<String, String>();
+        for (int i = 0; i < aliasNames.size(); i++) {
+            aliases.put(aliasNames.get(i), names.get(i));
+        }
+
+        ClassProviderWithAliases provider = new ClassProviderWithAliases(bundle, names, aliases);
+
+        long retained = measureRetained(provider, bundle, names, aliasNames);
+        assertWithinBudget("classProviderWithAliasesPerClassName", retained / CLASS_COUNT, 96);
+    }
+
+    @Test
+    public void scannedBundleHandler_shouldStayWithinBudgetPerClass() throws Exception {
+        List<String> names = StubBundles.createClassNames(PACKAGE_NAME, CLASS_COUNT);
+        Hashtable<String, String> headers = new Hashtable<String, String>();
+        headers.put(Constants.PROVIDED_CLASSES_HEADER, PACKAGE_NAME + ".*");
+        bundle = StubBundles.createBundle(names, headers);
+
+        BundleHandler bundleHandler = BundleHandler.getInstance(bundle);
+        bundleHandler.scanBundle();
+
+        long retained = measureRetained(bundleHandler, bundle);
+        assertWithinBudget("bundleHandlerPerClass", retained / CLASS_COUNT, 320);
+    }
+
+    /**
+     * returns the size of the object graph reachable from root, excluding everything reachable from any of the shared
+     * objects.
+     */
+    private static long measureRetained(Object root, Object... shared) {
+        GraphLayout graph = GraphLayout.parseInstance(root);
+        if (shared.length > 0) {
+            graph = graph.subtract(GraphLayout.parseInstance(shared));
+        }
+        return graph.totalSize();
+    }
+
+    private static void assertWithinBudget(String name, long actual, long defaultBudget) {
+        long budget = Long.getLong("delegation.footprint.budget." + name, defaultBudget);
+        LOGGER.info("footprint {}: {} bytes (budget {} bytes)", new Object[]{ name, actual, budget });
+        assertTrue(String.format("%s retains %d bytes, exceeding the budget of %d bytes", name, actual, budget),
+            actual <= budget);
+    }
+
+}
@@ -0,0 +1,283 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.labs.delegation.service.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.openengsb.labs.delegation.service.LookupRejectedException;
+import org.openengsb.labs.delegation.service.LookupRejectedException.Reason;
+import org.openengsb.labs.delegation.service.WaitStrategy;
+import org.osgi.framework.Bundle;
+import org.osgi.util.tracker.ServiceTracker;
+
+public class ProviderWaitsTest {
+
+    /**
+     * tracker whose provider appears once {@link #register(Object)} is called
+     */
+    private static class StubTracker extends ServiceTracker {
+        private final CountDownLatch waiting = new CountDownLatch(1);
+        private final CountDownLatch registered = new CountDownLatch(1);
+        private volatile Object provider;
+        private Thread waiter;
+
+        public StubTracker() {
+            super(StubBundles.createBundleContext(Collections.<String, String> emptyMap()), Object.class.getName(),
+                null);
+        }
+
+        public void register(Object provider) {
+            this.provider = provider;
+            registered.countDown();
+        }
+
+        @Override
+        public Object getService() {
+            return provider;
+        }
+
+        @Override
+        public Object waitForService(long timeout) throws InterruptedException {
+            waiting.countDown();
+            registered.await(timeout, TimeUnit.MILLISECONDS);
+            return provider;
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ProviderWaits.reset();
+        ScanProgress.reset();
+    }
+
+    @Test
+    public void waitWithTooManyWaiters_shouldReject() throws Exception {
+        ProviderWaits.setLimits(1, 0, 0);
+        StubTracker blocked = startWaiter("foo.Bar", "ctx");
+
+        assertRejected(new StubTracker(), "foo.Baz", "other", Reason.TOO_MANY_WAITERS);
+        blocked.register("provider");
+    }
+
+    @Test
+    public void waitWithTooManyWaitersInContext_shouldOnlyRejectThatContext() throws Exception {
+        ProviderWaits.setLimits(0, 1, 0);
+        StubTracker blocked = startWaiter("foo.Bar", "ctx");
+
+        assertRejected(new StubTracker(), "foo.Baz", "ctx", Reason.TOO_MANY_WAITERS);
+        assertNull(waitFor(new StubTracker(), "foo.Baz", "other", 1));
+        blocked.register("provider");
+    }
+
+    @Test
+    public void waitWithRegisteredProvider_shouldNeverReject() throws Exception {
+        ProviderWaits.setLimits(1, 1, 60000);
+        StubTracker blocked = startWaiter("foo.Bar", "ctx");
+        StubTracker tracker = new StubTracker();
+        tracker.register("provider");
+
+        assertSame("provider", waitFor(tracker, "foo.Bar", "ctx", 1));
+        blocked.register("provider");
+    }
+
+    @Test
+    public void waitAfterTimeout_shouldRejectUntilCircuitCloses() throws Exception {
+        ProviderWaits.setLimits(0, 0, 60000);
+        assertNull(waitFor(new StubTracker(), "foo.Bar", null, 1));
+
+        assertRejected(new StubTracker(), "foo.Bar", null, Reason.CIRCUIT_OPEN);
+        assertNull(waitFor(new StubTracker(), "foo.Baz", null, 1));
+    }
+
+    @Test
+    public void waitAfterCircuitOpenTime_shouldAllowOneProbe() throws Exception {
+        ProviderWaits.setLimits(0, 0, 1);
+        assertNull(waitFor(new StubTracker(), "foo.Bar", null, 1));
+        Thread.sleep(10);
+
+        StubTracker probe = startWaiter("foo.Bar", null);
+        assertRejected(new StubTracker(), "foo.Bar", null, Reason.CIRCUIT_OPEN);
+        probe.register("provider");
+        probe.waiter.join(10000);
+        assertNull(waitFor(new StubTracker(), "foo.Bar", null, 1));
+    }
+
+    @Test
+    public void probeFailingWithException_shouldAllowAnotherProbe() throws Exception {
+        ProviderWaits.setLimits(0, 0, 1);
+        assertNull(waitFor(new StubTracker(), "foo.Bar", null, 1));
+        Thread.sleep(10);
+        StubTracker closedTracker = new StubTracker() {
+            @Override
+            public Object waitForService(long timeout) {
+                throw new IllegalStateException("tracker closed");
+            }
+        };
+
+        try {
+            waitFor(closedTracker, "foo.Bar", null, 1);
+            fail("expected the closed tracker to fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertNull(waitFor(new StubTracker(), "foo.Bar", null, 1));
+    }
+
+    @Test
+    public void probeAfterCircuitsWereDisabled_shouldCloseCircuit() throws Exception {
+        ProviderWaits.setLimits(0, 0, 1);
+        assertNull(waitFor(new StubTracker(), "foo.Bar", null, 1));
+        Thread.sleep(10);
+        ProviderWaits.setLimits(0, 0, 0);
+
+        StubTracker probe = startWaiter("foo.Bar", null);
+        probe.register(null);
+        probe.waiter.join(10000);
+        assertNull(waitFor(new StubTracker(), "foo.Bar", null, 1));
+    }
+
+    @Test
+    public void getWaitStrategy_shouldPreferStrategyOfContext() throws Exception {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(ProviderWaits.WAIT_STRATEGY_PROPERTY, "startup_aware");
+        properties.put(ProviderWaits.WAIT_STRATEGY_PROPERTY + ".ctx", "FIXED_TIMEOUT");
+        ProviderWaits.configure(StubBundles.createBundleContext(properties));
+
+        assertEquals(WaitStrategy.STARTUP_AWARE, ProviderWaits.getWaitStrategy(null));
+        assertEquals(WaitStrategy.STARTUP_AWARE, ProviderWaits.getWaitStrategy(Arrays.asList("other")));
+        assertEquals(WaitStrategy.FIXED_TIMEOUT, ProviderWaits.getWaitStrategy(Arrays.asList("other", "ctx")));
+    }
+
+    @Test
+    public void waitStartupAwareAfterInitialScan_shouldFailFast() throws Exception {
+        ProviderWaits.configure(StubBundles.createBundleContext(new HashMap<String, String>()));
+        ScanProgress.initialScanFinished();
+        long start = System.nanoTime();
+
+        assertNull(waitStartupAware(new StubTracker(), "foo.Bar", 10000));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+    }
+
+    @Test
+    public void waitStartupAwareDuringInitialScan_shouldWaitForScan() throws Exception {
+        ProviderWaits.configure(StubBundles.createBundleContext(new HashMap<String, String>()));
+        long start = System.nanoTime();
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                ScanProgress.initialScanFinished();
+            }
+        }.start();
+
+        assertNull(waitStartupAware(new StubTracker(), "foo.Bar", 10000));
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(waited >= 200 && waited < 5000);
+    }
+
+    @Test
+    public void waitStartupAwareWithStartingBundle_shouldWaitForProvider() throws Exception {
+        ProviderWaits.configure(StubBundles.createBundleContext(new HashMap<String, String>()));
+        ScanProgress.initialScanFinished();
+        Bundle startingBundle = StubBundles.createBundle(Bundle.STARTING);
+        ScanProgress.bundleStarting(startingBundle);
+        final StubTracker tracker = new StubTracker();
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                tracker.register("provider");
+            }
+        }.start();
+
+        assertSame("provider", waitStartupAware(tracker, "foo.Bar", 10000));
+        ScanProgress.bundleStopped(startingBundle);
+        long start = System.nanoTime();
+        assertNull(waitStartupAware(new StubTracker(), "foo.Baz", 10000));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+    }
+
+    @Test
+    public void waitStartupAwareWithoutFramework_shouldWaitLikeFixedTimeout() throws Exception {
+        long start = System.nanoTime();
+
+        assertNull(waitStartupAware(new StubTracker(), "foo.Bar", 200));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 200);
+    }
+
+    private static StubTracker startWaiter(final String name, final String context) throws InterruptedException {
+        final StubTracker tracker = new StubTracker();
+        tracker.waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    waitFor(tracker, name, context, 10000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (LookupRejectedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        tracker.waiter.start();
+        assertTrue(tracker.waiting.await(10, TimeUnit.SECONDS));
+        return tracker;
+    }
+
+    private static void assertRejected(StubTracker tracker, String name, String context, Reason reason)
+        throws InterruptedException {
+        try {
+            waitFor(tracker, name, context, 10000);
+            fail("expected the lookup of " + name + " to be rejected");
+        } catch (LookupRejectedException e) {
+            assertEquals(reason, e.getReason());
+        }
+    }
+
+    private static Object waitFor(StubTracker tracker, String name, String context, long timeout)
+        throws InterruptedException, LookupRejectedException {
+        return ProviderWaits.waitForProvider(tracker, name,
+            context == null ? null : Collections.singletonList(context), null, timeout, WaitStrategy.FIXED_TIMEOUT);
+    }
+
+    private static Object waitStartupAware(StubTracker tracker, String name, long timeout) throws Exception {
+        return ProviderWaits.waitForProvider(tracker, name, null, null, timeout, WaitStrategy.STARTUP_AWARE);
+    }
+
+}
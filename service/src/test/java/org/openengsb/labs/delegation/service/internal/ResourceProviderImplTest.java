@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.labs.delegation.service.internal;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+public class ResourceProviderImplTest {
+
+    @Test
+    public void loadSameContentFromTwoProviders_shouldShareTheArray() throws Exception {
+        ResourceProviderImpl provider1 = createProvider("<test></test>");
+        ResourceProviderImpl provider2 = createProvider("<test></test>");
+
+        byte[] content1 = provider1.loadContent("resources/test.xml");
+        byte[] content2 = provider2.loadContent("resources/test.xml");
+
+        assertSame(content1, content2);
+        assertSame(content1, provider1.loadContent("resources/test.xml"));
+        assertNull(provider1.loadContent("resources/other.xml"));
+    }
+
+    private static ResourceProviderImpl createProvider(String content) throws IOException {
+        File file = File.createTempFile("resource", ".xml");
+        file.deleteOnExit();
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content.getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+        Bundle bundle = StubBundles.createResourceBundle(Collections.singletonMap("resources/test.xml",
+            file.toURI().toURL()));
+        return new ResourceProviderImpl(bundle, Collections.singleton("resources/test.xml"));
+    }
+
+}
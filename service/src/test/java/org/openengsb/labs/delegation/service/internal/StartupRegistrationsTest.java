@@ -0,0 +1,73 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.labs.delegation.service.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+public class StartupRegistrationsTest {
+
+    @Test
+    public void registerWithoutBatch_shouldRegisterImmediately() throws Exception {
+        List<Object> registered = new ArrayList<Object>();
+        Bundle bundle = StubBundles.createRegisteringBundle(registered);
+
+        StartupRegistrations.register(bundle, Object.class.getName(), "service", new Hashtable<String, Object>());
+
+        assertEquals(1, registered.size());
+    }
+
+    @Test
+    public void registerDuringBatch_shouldPublishAllAtOnceAndWakeWaiters() throws Exception {
+        List<Object> registered = new ArrayList<Object>();
+        Bundle bundle = StubBundles.createRegisteringBundle(registered);
+        long generation = StartupRegistrations.getGeneration();
+        final CountDownLatch woken = new CountDownLatch(1);
+
+        StartupRegistrations.begin();
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                StartupRegistrations.awaitPublication(10000);
+                woken.countDown();
+            }
+        };
+        waiter.start();
+        StartupRegistrations.register(bundle, Object.class.getName(), "first", new Hashtable<String, Object>());
+        StartupRegistrations.register(bundle, Object.class.getName(), "second", new Hashtable<String, Object>());
+        StartupRegistrations.awaitPublication(10000);
+
+        assertTrue(registered.isEmpty());
+        assertFalse(woken.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(2, StartupRegistrations.publish());
+        assertEquals(2, registered.size());
+        assertTrue(woken.await(10, TimeUnit.SECONDS));
+        assertEquals(generation + 1, StartupRegistrations.getGeneration());
+    }
+
+}
@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.labs.delegation.service.internal;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Version;
+
+/**
+ * Creates bundle stubs containing (non-existing) class files with the given names, and framework stubs for them.
+ */
+public final class StubBundles {
+
+    private static final AtomicLong NEXT_ID = new AtomicLong(1000);
+
+    public static List<String> createClassNames(String packageName, int count) {
+        List<String> result = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(packageName + ".GeneratedClass" + i);
+        }
+        return result;
+    }
+
+    public static Bundle createBundle(Collection<String> classNames, Hashtable<String, String> headers) {
+        return createBundle(classNames, headers, Collections.<String, URL> emptyMap(), Bundle.ACTIVE);
+    }
+
+    /**
+     * creates a bundle stub without classes in the given state
+     */
+    public static Bundle createBundle(int state) {
+        return createBundle(Collections.<String> emptyList(), null, Collections.<String, URL> emptyMap(), state);
+    }
+
+    /**
+     * creates a bundle stub returning the given URLs from {@link Bundle#getResource(String)}
+     */
+    public static Bundle createResourceBundle(Map<String, URL> resources) {
+        return createBundle(Collections.<String> emptyList(), null, resources, Bundle.ACTIVE);
+    }
+
+    /**
+     * creates a context stub answering the given framework properties and returning an active system bundle. All other
+     * methods return null.
+     */
+    public static BundleContext createBundleContext(final Map<String, String> properties) {
+        final Bundle systemBundle = createBundle(Bundle.ACTIVE);
+        return (BundleContext) Proxy.newProxyInstance(StubBundles.class.getClassLoader(),
+            new Class<?>[]{ BundleContext.class }, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if ("getProperty".equals(method.getName())) {
+                        return properties.get(args[0]);
+                    }
+                    if ("getBundle".equals(method.getName())) {
+                        return systemBundle;
+                    }
+                    return null;
+                }
+            });
+    }
+
+    private static Bundle createBundle(Collection<String> classNames, Hashtable<String, String> headers,
+            final Map<String, URL> resources, final int state) {
+        final List<URL> entries = new ArrayList<URL>();
+        for (String className : classNames) {
+            entries.add(toURL(className));
+        }
+        final Hashtable<String, String> bundleHeaders = headers == null ? new Hashtable<String, String>() : headers;
+        final long bundleId = NEXT_ID.incrementAndGet();
+        InvocationHandler handler = new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if ("findEntries".equals(name)) {
+                    return entries.isEmpty() ? null : Collections.enumeration(entries);
+                }
+                if ("getHeaders".equals(name)) {
+                    return bundleHeaders;
+                }
+                if ("getSymbolicName".equals(name)) {
+                    return "stub.bundle" + bundleId;
+                }
+                if ("getBundleId".equals(name)) {
+                    return bundleId;
+                }
+                if ("getVersion".equals(name)) {
+                    return new Version(1, 0, 0);
+                }
+                if ("loadClass".equals(name)) {
+                    return Class.forName((String) args[0]);
+                }
+                if ("getLastModified".equals(name)) {
+                    return 0L;
+                }
+                if ("getState".equals(name)) {
+                    return state;
+                }
+                if ("getResource".equals(name)) {
+                    return resources.get(args[0]);
+                }
+                if ("hashCode".equals(name)) {
+                    return System.identityHashCode(proxy);
+                }
+                if ("equals".equals(name)) {
+                    return proxy == args[0];
+                }
+                if ("toString".equals(name)) {
+                    return "StubBundle[" + bundleId + "]";
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        };
+        return (Bundle) Proxy.newProxyInstance(StubBundles.class.getClassLoader(), new Class<?>[]{ Bundle.class },
+            handler);
+    }
+
+    /**
+     * creates a bundle stub whose context adds all registered services to the given list
+     */
+    public static Bundle createRegisteringBundle(final List<Object> registeredServices) {
+        final Bundle bundle = createBundle(Collections.<String> emptyList(), null);
+        final BundleContext bundleContext = (BundleContext) Proxy.newProxyInstance(StubBundles.class.getClassLoader(),
+            new Class<?>[]{ BundleContext.class }, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if ("registerService".equals(method.getName())) {
+                        registeredServices.add(args[1]);
+                        return null;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        return (Bundle) Proxy.newProxyInstance(StubBundles.class.getClassLoader(), new Class<?>[]{ Bundle.class },
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if ("getBundleContext".equals(method.getName())) {
+                        return bundleContext;
+                    }
+                    return method.invoke(bundle, args);
+                }
+            });
+    }
+
+    private static URL toURL(String className) {
+        try {
+            return new URL("file", null, "/" + className.replace('.', '/') + ".class");
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private StubBundles() {
+    }
+
+}
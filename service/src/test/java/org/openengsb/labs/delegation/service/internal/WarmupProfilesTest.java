@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.labs.delegation.service.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openengsb.labs.delegation.service.Constants;
+import org.osgi.framework.Bundle;
+
+public class WarmupProfilesTest {
+
+    private static final Collection<String> PROVIDED = Arrays.asList("foo.Bar", "foo.Baz", "foo.Qux");
+
+    private File storage;
+
+    @Before
+    public void setUp() throws Exception {
+        storage = File.createTempFile("warmup", "");
+        storage.delete();
+        WarmupProfiles.setStorage(storage);
+        WarmupProfiles.clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        WarmupProfiles.setStorage(null);
+        WarmupProfiles.clear();
+        File[] files = storage.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        storage.delete();
+    }
+
+    @Test
+    public void saveProfile_shouldBeReadAfterRestart() throws Exception {
+        Bundle bundle = StubBundles.createBundle(Collections.<String> emptyList(), null);
+        WarmupProfiles.getProfile(bundle).add("foo.Bar");
+        WarmupProfiles.getProfile(bundle).add("foo.Baz");
+
+        WarmupProfiles.save(bundle);
+        WarmupProfiles.clear();
+
+        assertEquals(1, storage.listFiles().length);
+        List<String> profile = WarmupProfiles.getProfiledClasses(bundle, PROVIDED);
+        assertEquals(2, profile.size());
+        assertTrue(profile.contains("foo.Bar"));
+    }
+
+    @Test
+    public void saveProfileAgain_shouldKeepStoredClasses() throws Exception {
+        Bundle bundle = StubBundles.createBundle(Collections.<String> emptyList(), null);
+        WarmupProfiles.getProfile(bundle).add("foo.Bar");
+        WarmupProfiles.save(bundle);
+        WarmupProfiles.removeBundle(bundle);
+
+        WarmupProfiles.getProfile(bundle).add("foo.Baz");
+        WarmupProfiles.save(bundle);
+        WarmupProfiles.clear();
+
+        assertEquals(Arrays.asList("foo.Bar", "foo.Baz"), WarmupProfiles.getProfiledClasses(bundle, PROVIDED));
+    }
+
+    @Test
+    public void loadClassThroughProvider_shouldBeAddedToProfile() throws Exception {
+        Bundle bundle = StubBundles.createBundle(Collections.<String> emptyList(), null);
+        ClassProviderImpl provider = new ClassProviderImpl(bundle, "java.lang.String");
+        provider.setProfile(WarmupProfiles.getProfile(bundle));
+
+        provider.loadClass("java.lang.String");
+
+        assertTrue(WarmupProfiles.getProfile(bundle).contains("java.lang.String"));
+    }
+
+    @Test
+    public void warmUpProfiledLazyClass_shouldNotPreloadIt() throws Exception {
+        Hashtable<String, String> headers = new Hashtable<String, String>();
+        headers.put(Constants.PROVIDED_CLASSES_HEADER, "foo.Bar;loading:=lazy, foo.Baz");
+        Bundle bundle = StubBundles.createBundle(Arrays.asList("foo.Bar", "foo.Baz"), headers);
+        WarmupProfiles.getProfile(bundle).add("foo.Bar");
+        WarmupProfiles.getProfile(bundle).add("foo.Baz");
+        WarmupProfiles.save(bundle);
+        WarmupProfiles.clear();
+        BundleHandler bundleHandler = BundleHandler.getInstance(bundle);
+        try {
+            bundleHandler.scanBundle();
+
+            List<String> preloaded = WarmupProfiles.getProfiledClasses(bundle, bundleHandler.getWarmUpCandidates());
+            assertEquals(Arrays.asList("foo.Baz"), preloaded);
+        } finally {
+            BundleHandler.release(bundle);
+        }
+    }
+
+}
@@ -32,14 +32,24 @@ import static org.ops4j.pax.tinybundles.core.TinyBundles.bundle;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStreamReader;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Method;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Hashtable;
 import java.util.concurrent.Callable;
 
 import javax.inject.Inject;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -50,8 +60,14 @@ import org.openengsb.labs.delegation.itests.bundles.provider.TestService;
 import org.openengsb.labs.delegation.itests.bundles.provider.internal.TestProvider;
 import org.openengsb.labs.delegation.service.ClassProvider;
 import org.openengsb.labs.delegation.service.DelegatedClassLoadingHelper;
+import org.openengsb.labs.delegation.service.DelegatedInstanceFactory;
+import org.openengsb.labs.delegation.service.DelegatingObjectInputStream;
+import org.openengsb.labs.delegation.service.DelegationClassLoader;
 import org.openengsb.labs.delegation.service.DelegationUtil;
+import org.openengsb.labs.delegation.service.Provide;
+import org.openengsb.labs.delegation.service.ProviderSelection;
 import org.openengsb.labs.delegation.service.ResourceProvider;
+import org.openengsb.labs.delegation.service.WaitStrategy;
 import org.ops4j.pax.exam.Option;
 import org.ops4j.pax.exam.junit.Configuration;
 import org.ops4j.pax.exam.junit.ExamReactorStrategy;
@@ -200,6 +216,37 @@ public class DelegationTest {
         }
     }
 
+    @Test
+    public void provideBundleHeadersMultiplexed_shouldRegisterOneProviderHonouringContexts() throws Exception {
+        TinyBundle providerTinyBundle = createBundleWithoutActivator();
+        providerTinyBundle.set(org.openengsb.labs.delegation.service.Constants.PROVIDED_CLASSES_HEADER,
+            TestService.class.getName());
+        providerTinyBundle.set(org.openengsb.labs.delegation.service.Constants.PROVIDED_CLASSES_HEADER + "-foo",
+            TestBean.class.getName());
+        providerTinyBundle.set(org.openengsb.labs.delegation.service.Constants.PROVIDED_CLASSES_HEADER + "-bar",
+            ChildBean.class.getName());
+        providerTinyBundle.set(org.openengsb.labs.delegation.service.Constants.MULTIPLEX_PROVIDERS_HEADER, "true");
+        Bundle providerBundle =
+            bundleContext.installBundle("test://testlocation/test.provider.jar", providerTinyBundle.build());
+        providerBundle.start();
+        getOsgiService(ClassProvider.class);
+        assertThat(providerBundle.getRegisteredServices().length, is(1));
+
+        DelegatedClassLoadingHelper helper = new DelegatedClassLoadingHelper(bundleContext);
+        helper.setTimeout(100);
+        assertThat(helper.loadClass(TestService.class.getName()).getName(), equalTo(TestService.class.getName()));
+        assertThat(helper.loadClassInContext(TestBean.class.getName(), "foo").getName(),
+            equalTo(TestBean.class.getName()));
+        assertThat(helper.loadClassInContexts(ChildBean.class.getName(), Arrays.asList("foo", "bar")).getName(),
+            equalTo(ChildBean.class.getName()));
+        try {
+            helper.loadClassInContext(ChildBean.class.getName(), "foo");
+            fail("expected class not to be provided in context foo");
+        } catch (ClassNotFoundException e) {
+            // expected
+        }
+    }
+
     @Test
     public void provideBundleWithAnnotations_shouldProvideClasses() throws Exception {
         TinyBundle providerTinyBundle = createProviderBundle();
@@ -286,6 +333,175 @@ public class DelegationTest {
         assertThat(provider1, not(equalTo(provider2)));
     }
 
+    @Test
+    public void loadClassProvidedInTwoVersions_shouldSelectHighestVersionConsistently() throws Exception {
+        TinyBundle providerTinyBundle = createProviderBundle();
+        providerTinyBundle.set(org.openengsb.labs.delegation.service.Constants.PROVIDED_CLASSES_HEADER,
+            TestBean.class.getName());
+        Bundle providerBundle =
+            bundleContext.installBundle("test://testlocation/test.provider.jar", providerTinyBundle.build());
+        providerBundle.start();
+
+        TinyBundle providerTinyBundle2 = createProviderBundle();
+        providerTinyBundle2.set(Constants.BUNDLE_VERSION, "1.0.1");
+        providerTinyBundle2.set(org.openengsb.labs.delegation.service.Constants.PROVIDED_CLASSES_HEADER,
+            TestBean.class.getName());
+        Bundle providerBundle2 =
+            bundleContext.installBundle("test://testlocation/test.provider2.jar", providerTinyBundle2.build());
+        providerBundle2.start();
+
+        DelegatedClassLoadingHelper helper = new DelegatedClassLoadingHelper(bundleContext);
+        helper.setProviderSelection(ProviderSelection.HIGHEST_VERSION);
+        Class<?> result = helper.loadClass(TestBean.class.getName());
+
+        assertThat(result, equalTo((Object) providerBundle2.loadClass(TestBean.class.getName())));
+        assertThat(helper.loadClass(TestBean.class.getName()), equalTo((Object) result));
+
+        providerBundle2.stop();
+        assertThat(helper.loadClass(TestBean.class.getName()),
+            equalTo((Object) providerBundle.loadClass(TestBean.class.getName())));
+    }
+
+    @Test
+    public void preferredProviderFailsToLoadClass_shouldFailOverToNextProvider() throws Exception {
+        String name = "org.example.FailoverTarget";
+        registerClassProvider(name, null, 10, new ClassProvider() {
+            @Override
+            public Class<?> loadClass(String classname) throws ClassNotFoundException {
+                throw new ClassNotFoundException(classname);
+            }
+
+            @Override
+            public Collection<Class<?>> listClasses() {
+                return Collections.emptyList();
+            }
+        });
+        registerClassProvider(name, null, 0, createFixedClassProvider(TestBean.class));
+
+        DelegatedClassLoadingHelper helper = new DelegatedClassLoadingHelper(bundleContext);
+
+        assertThat(helper.loadClass(name), equalTo((Object) TestBean.class));
+        assertThat(helper.loadClass(name), equalTo((Object) TestBean.class));
+    }
+
+    @Test
+    public void loadClassInContextChain_shouldReturnClassOfFirstProvidingContext() throws Exception {
+        String name = "org.example.LayeredTarget";
+        registerClassProvider(name, "platform", 10, createFixedClassProvider(ChildBean.class));
+        registerClassProvider(name, "product", 0, createFixedClassProvider(TestBean.class));
+
+        DelegatedClassLoadingHelper helper = new DelegatedClassLoadingHelper(bundleContext);
+        Class<?> result = helper.loadClassInContexts(name, Arrays.asList("tenant", "product", "platform"));
+        assertThat(result, equalTo((Object) TestBean.class));
+
+        DelegationClassLoader classLoader =
+            new DelegationClassLoader(bundleContext, Arrays.asList("tenant", "platform"), null);
+        assertThat(classLoader.loadClass(name), equalTo((Object) ChildBean.class));
+    }
+
+    @Test
+    public void findSubtypesOfProvidedClasses_shouldReturnNamesWithoutLoadingClasses() throws Exception {
+        TinyBundle providerTinyBundle = createBundleWithoutActivator();
+        providerTinyBundle.set(org.openengsb.labs.delegation.service.Constants.PROVIDED_CLASSES_HEADER + "-foo",
+            ChildBean.class.getName() + ", " + TestService.class.getName());
+        Bundle providerBundle =
+            bundleContext.installBundle("test://testlocation/test.provider.jar", providerTinyBundle.build());
+        providerBundle.start();
+        getOsgiService(ClassProvider.class);
+
+        assertThat(DelegationUtil.findSubtypes(Serializable.class.getName(), "foo"),
+            equalTo(Collections.singleton(ChildBean.class.getName())));
+        assertThat(DelegationUtil.findSubtypes(Serializable.class.getName(), "bar").isEmpty(), is(true));
+        assertThat(isClassLoaded(providerBundle, ChildBean.class.getName()), is(false));
+    }
+
+    @Test
+    public void findAnnotatedProvidedClasses_shouldReturnNamesWithoutLoadingClasses() throws Exception {
+        TinyBundle providerTinyBundle = createBundleWithoutActivator();
+        providerTinyBundle.set(org.openengsb.labs.delegation.service.Constants.PROVIDED_CLASSES_HEADER + "-foo",
+            ChildBean.class.getName() + ", " + TestService.class.getName());
+        providerTinyBundle.set(org.openengsb.labs.delegation.service.Constants.ANNOTATION_INDEX_HEADER, "true");
+        Bundle providerBundle =
+            bundleContext.installBundle("test://testlocation/test.provider.jar", providerTinyBundle.build());
+        providerBundle.start();
+        getOsgiService(ClassProvider.class);
+
+        assertThat(DelegationUtil.findAnnotated(Provide.class.getName(), "foo"),
+            equalTo(Collections.singleton(ChildBean.class.getName())));
+        assertThat(DelegationUtil.findAnnotated(Provide.class.getName(), "bar").isEmpty(), is(true));
+        assertThat(DelegationUtil.findAnnotated(Deprecated.class.getName(), null).isEmpty(), is(true));
+        assertThat(isClassLoaded(providerBundle, ChildBean.class.getName()), is(false));
+    }
+
+    @Test
+    public void deserializeWithDelegatingObjectInputStream_shouldResolveProvidedClassesAndArrays() throws Exception {
+        TinyBundle providerTinyBundle = createBundleWithoutActivator();
+        providerTinyBundle.set(org.openengsb.labs.delegation.service.Constants.PROVIDED_CLASSES_HEADER,
+            ChildBean.class.getName());
+        Bundle providerBundle =
+            bundleContext.installBundle("test://testlocation/test.provider.jar", providerTinyBundle.build());
+        providerBundle.start();
+        getOsgiService(ClassProvider.class);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(new Object[]{ new ChildBean(), new ChildBean[]{ new ChildBean() }, new int[][]{ { 1 } } });
+        out.close();
+
+        DelegatingObjectInputStream in = new DelegatingObjectInputStream(
+            new ByteArrayInputStream(bytes.toByteArray()), new DelegatedClassLoadingHelper(bundleContext));
+        Object[] result = (Object[]) in.readObject();
+        in.close();
+
+        Class<?> providedClass = providerBundle.loadClass(ChildBean.class.getName());
+        assertThat(result[0].getClass(), equalTo((Object) providedClass));
+        assertThat(result[1].getClass().getComponentType(), equalTo((Object) providedClass));
+        assertThat(((int[][]) result[2])[0][0], is(1));
+    }
+
+    @Test
+    public void createInstancesWithFactory_shouldUseProvidedClassUntilProviderIsGone() throws Exception {
+        TinyBundle providerTinyBundle = createBundleWithoutActivator();
+        providerTinyBundle.set(org.openengsb.labs.delegation.service.Constants.PROVIDED_CLASSES_HEADER,
+            ChildBean.class.getName());
+        Bundle providerBundle =
+            bundleContext.installBundle("test://testlocation/test.provider.jar", providerTinyBundle.build());
+        providerBundle.start();
+        getOsgiService(ClassProvider.class);
+        DelegatedClassLoadingHelper helper = new DelegatedClassLoadingHelper(bundleContext);
+        helper.setTimeout(100);
+        DelegatedInstanceFactory factory = new DelegatedInstanceFactory(helper);
+
+        Object first = factory.newInstance(ChildBean.class.getName());
+        Object second = factory.newInstance(ChildBean.class.getName());
+
+        Class<?> providedClass = providerBundle.loadClass(ChildBean.class.getName());
+        assertThat(first.getClass(), equalTo((Object) providedClass));
+        assertThat(second.getClass(), equalTo((Object) providedClass));
+        assertThat(first.equals(second), is(false));
+        providerBundle.stop();
+        try {
+            factory.newInstance(ChildBean.class.getName());
+            fail("expected the class not to be found after the provider was stopped");
+        } catch (ClassNotFoundException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void loadMissingClassStartupAware_shouldFailWithoutWaitingForTimeout() throws Exception {
+        DelegatedClassLoadingHelper helper = new DelegatedClassLoadingHelper(bundleContext);
+        helper.setTimeout(30000);
+        helper.setWaitStrategy(WaitStrategy.STARTUP_AWARE);
+        long start = System.currentTimeMillis();
+        try {
+            helper.loadClass("org.openengsb.labs.delegation.itests.NotProvided");
+            fail("expected the class not to be found");
+        } catch (ClassNotFoundException e) {
+            // expected
+        }
+        assertThat(System.currentTimeMillis() - start < 10000, is(true));
+    }
+
     @Test
     public void provideResourcesByInjectingService_shouldOnlyProvideSpecifiedResources() throws Exception {
         TinyBundle providerTinyBundle = createProviderBundle();
@@ -320,6 +536,37 @@ public class DelegationTest {
         assertThat(readLine, is("<test></test>"));
     }
 
+    @Test
+    public void provideSameResourceInTwoVersions_shouldServeIdenticalContent() throws Exception {
+        TinyBundle providerTinyBundle = createProviderBundle();
+        providerTinyBundle.add("resources/test.xml", new ByteArrayInputStream("<test></test>".getBytes()));
+        providerTinyBundle.set(org.openengsb.labs.delegation.service.Constants.PROVIDED_RESOURCES_HEADER,
+            "resources/test.xml");
+        Bundle providerBundle =
+            bundleContext.installBundle("test://testlocation/test.provider.jar", providerTinyBundle.build());
+        providerBundle.start();
+
+        TinyBundle providerTinyBundle2 = createProviderBundle();
+        providerTinyBundle2.add("resources/test.xml", new ByteArrayInputStream("<test></test>".getBytes()));
+        providerTinyBundle2.set(org.openengsb.labs.delegation.service.Constants.PROVIDED_RESOURCES_HEADER,
+            "resources/test.xml");
+        providerTinyBundle2.set(Constants.BUNDLE_VERSION, "1.0.1");
+        Bundle providerBundle2 =
+            bundleContext.installBundle("test://testlocation/test.provider2.jar", providerTinyBundle2.build());
+        providerBundle2.start();
+
+        ResourceProvider provider1 = getOsgiService(ResourceProvider.class, String.format("(%s=%s)",
+            org.openengsb.labs.delegation.service.Constants.CLASS_VERSION_KEY, "1.0.0"));
+        ResourceProvider provider2 = getOsgiService(ResourceProvider.class, String.format("(%s=%s)",
+            org.openengsb.labs.delegation.service.Constants.CLASS_VERSION_KEY, "1.0.1"));
+
+        ByteBuffer content1 = DelegationUtil.loadResourceContent(provider1, "resources/test.xml");
+        ByteBuffer content2 = DelegationUtil.loadResourceContent(provider2, "resources/test.xml");
+        assertThat(content1, equalTo(ByteBuffer.wrap("<test></test>".getBytes())));
+        assertThat(content2, equalTo(content1));
+        assertThat(DelegationUtil.loadResourceContent(provider1, "resources/other.xml"), nullValue());
+    }
+
     @Test
     public void provideBundleWithAnnotations_shouldProvideClassesAsAlias() throws Exception {
         TinyBundle providerTinyBundle = createProviderBundle();
@@ -373,6 +620,100 @@ public class DelegationTest {
         assertThat(result, notNullValue());
     }
 
+    @Test
+    public void loadProvidedClass_shouldBeCountedInStatsMBean() throws Exception {
+        TinyBundle providerTinyBundle = createProviderBundle();
+        providerTinyBundle.set(org.openengsb.labs.delegation.service.Constants.PROVIDED_CLASSES_HEADER,
+            TestBean.class.getName());
+        Bundle providerBundle =
+            bundleContext.installBundle("test://testlocation/test.provider.jar", providerTinyBundle.build());
+        providerBundle.start();
+        DelegatedClassLoadingHelper helper = new DelegatedClassLoadingHelper(bundleContext);
+        helper.loadClass(TestBean.class.getName());
+
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName statsName = new ObjectName("org.openengsb.labs.delegation:type=DelegationStats");
+        assertThat((Long) mBeanServer.getAttribute(statsName, "HitCount") > 0, is(true));
+        assertThat((Integer) mBeanServer.getAttribute(statsName, "RegisteredClassProviders") > 0, is(true));
+        assertThat(mBeanServer.getAttribute(statsName, "LookupCountsByContext") instanceof TabularData, is(true));
+    }
+
+    @Test
+    public void provideClassesWithLoadingDirective_shouldOnlyLoadEagerClassesOnRegistration() throws Exception {
+        TinyBundle providerTinyBundle = createBundleWithoutActivator();
+        providerTinyBundle.set(org.openengsb.labs.delegation.service.Constants.PROVIDED_CLASSES_HEADER,
+            TestService.class.getName() + ";loading:=eager, " + ChildBean.class.getName());
+        Bundle providerBundle =
+            bundleContext.installBundle("test://testlocation/test.provider.jar", providerTinyBundle.build());
+        providerBundle.start();
+        getOsgiService(ClassProvider.class);
+
+        assertThat(isClassLoaded(providerBundle, TestService.class.getName()), is(true));
+        assertThat(isClassLoaded(providerBundle, ChildBean.class.getName()), is(false));
+    }
+
+    @Test
+    public void provideClassesWithBackgroundLoading_shouldLoadClassesAfterRegistration() throws Exception {
+        TinyBundle providerTinyBundle = createBundleWithoutActivator();
+        providerTinyBundle.set(org.openengsb.labs.delegation.service.Constants.PROVIDED_CLASSES_HEADER,
+            TestService.class.getName() + ";loading:=background");
+        Bundle providerBundle =
+            bundleContext.installBundle("test://testlocation/test.provider.jar", providerTinyBundle.build());
+        providerBundle.start();
+        getOsgiService(ClassProvider.class);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!isClassLoaded(providerBundle, TestService.class.getName())
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(isClassLoaded(providerBundle, TestService.class.getName()), is(true));
+    }
+
+    /**
+     * checks whether the class was already defined by the bundle's classloader, without loading it
+     */
+    private static boolean isClassLoaded(Bundle bundle, String name) throws Exception {
+        ClassLoader bundleClassLoader = bundle.loadClass(TestProvider.PageProvider.class.getName()).getClassLoader();
+        Method findLoadedClass = ClassLoader.class.getDeclaredMethod("findLoadedClass", String.class);
+        findLoadedClass.setAccessible(true);
+        return findLoadedClass.invoke(bundleClassLoader, name) != null;
+    }
+
+    private TinyBundle createBundleWithoutActivator() {
+        return bundle()
+            .add(TestProvider.PageProvider.class)
+            .add(TestService.class)
+            .add(ChildBean.class)
+            .set(Constants.BUNDLE_SYMBOLICNAME, "test.provider")
+            .set(Constants.BUNDLE_VERSION, "1.0.0")
+            .set(Constants.IMPORT_PACKAGE, "org.openengsb.labs.delegation.service");
+    }
+
+    private void registerClassProvider(String name, String context, int ranking, ClassProvider provider) {
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put(org.openengsb.labs.delegation.service.Constants.PROVIDED_CLASSES_KEY, name);
+        if (context != null) {
+            properties.put(org.openengsb.labs.delegation.service.Constants.DELEGATION_CONTEXT_KEY, context);
+        }
+        properties.put(Constants.SERVICE_RANKING, ranking);
+        bundleContext.registerService(ClassProvider.class.getName(), provider, properties);
+    }
+
+    private static ClassProvider createFixedClassProvider(final Class<?> clazz) {
+        return new ClassProvider() {
+            @Override
+            public Class<?> loadClass(String classname) throws ClassNotFoundException {
+                return clazz;
+            }
+
+            @Override
+            public Collection<Class<?>> listClasses() {
+                return Collections.<Class<?>> singleton(clazz);
+            }
+        };
+    }
+
     private TinyBundle createProviderBundle() {
         TinyBundle providerTinyBundle =
             bundle()
@@ -0,0 +1,79 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.labs.delegation.itests.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects the results of a benchmark run and appends them as a single JSON object to a result file, so runs can be
+ * tracked over time.
+ */
+public class BenchmarkResults {
+
+    private final Map<String, Object> values = new LinkedHashMap<String, Object>();
+
+    public BenchmarkResults() {
+        values.put("timestamp", System.currentTimeMillis());
+    }
+
+    public BenchmarkResults put(String name, Object value) {
+        values.put(name, value);
+        return this;
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            if (json.length() > 1) {
+                json.append(", ");
+            }
+            json.append('"').append(entry.getKey()).append("\": ");
+            if (entry.getValue() instanceof String) {
+                json.append('"').append(entry.getValue()).append('"');
+            } else {
+                json.append(entry.getValue());
+            }
+        }
+        return json.append("}").toString();
+    }
+
+    /**
+     * appends the results to the given file and prints them to stdout
+     */
+    public void writeTo(String path) throws IOException {
+        String json = toJson();
+        File outputFile = new File(path);
+        if (outputFile.getParentFile() != null) {
+            outputFile.getParentFile().mkdirs();
+        }
+        Writer writer = new FileWriter(outputFile, true);
+        try {
+            writer.write(json);
+            writer.write("\n");
+        } finally {
+            writer.close();
+        }
+        System.out.println(json);
+    }
+
+}
@@ -0,0 +1,141 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.labs.delegation.itests.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes minimal class files (no fields, no methods) so test bundles with arbitrary numbers of loadable classes can be
+ * generated without a bytecode library.
+ */
+public class ClassFileWriter {
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int JAVA6_MAJOR_VERSION = 50;
+    private static final int ACC_PUBLIC_SUPER = 0x0021;
+    private static final byte CONSTANT_UTF8 = 1;
+    private static final byte CONSTANT_CLASS = 7;
+    private static final String PROVIDE_DESCRIPTOR = "Lorg/openengsb/labs/delegation/service/Provide;";
+
+    private final String className;
+    private String superClassName = "java.lang.Object";
+    private List<String> provideContexts;
+
+    public ClassFileWriter(String className) {
+        this.className = className;
+    }
+
+    public ClassFileWriter withSuperClass(String superClass) {
+        this.superClassName = superClass;
+        return this;
+    }
+
+    /**
+     * annotates the class with {@code @Provide(context = {...})}
+     */
+    public ClassFileWriter withProvideAnnotation(List<String> contexts) {
+        this.provideContexts = new ArrayList<String>(contexts);
+        return this;
+    }
+
+    public String getEntryName() {
+        return className.replace('.', '/') + ".class";
+    }
+
+    public byte[] toByteArray() {
+        List<String> utf8Constants = new ArrayList<String>();
+        utf8Constants.add(toInternalName(className));
+        utf8Constants.add(toInternalName(superClassName));
+        if (provideContexts != null) {
+            utf8Constants.add("RuntimeVisibleAnnotations");
+            utf8Constants.add(PROVIDE_DESCRIPTOR);
+            utf8Constants.add("context");
+            utf8Constants.addAll(provideContexts);
+        }
+        try {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(result);
+            out.writeInt(MAGIC);
+            out.writeShort(0);
+            out.writeShort(JAVA6_MAJOR_VERSION);
+            // #1 this-name, #2 this-class, #3 super-name, #4 super-class, #5.. remaining utf8 constants
+            out.writeShort(utf8Constants.size() + 3);
+            writeUtf8(out, utf8Constants.get(0));
+            writeClass(out, 1);
+            writeUtf8(out, utf8Constants.get(1));
+            writeClass(out, 3);
+            for (String constant : utf8Constants.subList(2, utf8Constants.size())) {
+                writeUtf8(out, constant);
+            }
+            out.writeShort(ACC_PUBLIC_SUPER);
+            out.writeShort(2);
+            out.writeShort(4);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(0); // methods
+            if (provideContexts == null) {
+                out.writeShort(0);
+            } else {
+                out.writeShort(1);
+                writeProvideAnnotation(out);
+            }
+            out.flush();
+            return result.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeProvideAnnotation(DataOutputStream out) throws IOException {
+        int attributeNameIndex = 5;
+        int descriptorIndex = 6;
+        int elementNameIndex = 7;
+        int firstContextIndex = 8;
+        out.writeShort(attributeNameIndex);
+        out.writeInt(2 + 2 + 2 + 2 + 1 + 2 + provideContexts.size() * 3);
+        out.writeShort(1); // annotation count
+        out.writeShort(descriptorIndex);
+        out.writeShort(1); // element-value pairs
+        out.writeShort(elementNameIndex);
+        out.writeByte('[');
+        out.writeShort(provideContexts.size());
+        for (int i = 0; i < provideContexts.size(); i++) {
+            out.writeByte('s');
+            out.writeShort(firstContextIndex + i);
+        }
+    }
+
+    private static void writeUtf8(DataOutputStream out, String value) throws IOException {
+        out.writeByte(CONSTANT_UTF8);
+        out.writeUTF(value);
+    }
+
+    private static void writeClass(DataOutputStream out, int nameIndex) throws IOException {
+        out.writeByte(CONSTANT_CLASS);
+        out.writeShort(nameIndex);
+    }
+
+    private static String toInternalName(String name) {
+        return name.replace('.', '/');
+    }
+
+}
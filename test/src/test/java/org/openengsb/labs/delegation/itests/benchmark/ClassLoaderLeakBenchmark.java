@@ -0,0 +1,146 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.labs.delegation.itests.benchmark;
+
+import static org.junit.Assert.assertTrue;
+import static org.ops4j.pax.exam.CoreOptions.junitBundles;
+import static org.ops4j.pax.exam.CoreOptions.mavenBundle;
+import static org.ops4j.pax.exam.CoreOptions.options;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openengsb.labs.delegation.service.BeanProperties;
+import org.openengsb.labs.delegation.service.DelegatedClassLoadingHelper;
+import org.openengsb.labs.delegation.service.DelegationUtil;
+import org.ops4j.pax.exam.Option;
+import org.ops4j.pax.exam.junit.Configuration;
+import org.ops4j.pax.exam.junit.ExamReactorStrategy;
+import org.ops4j.pax.exam.junit.JUnit4TestRunner;
+import org.ops4j.pax.exam.spi.reactors.AllConfinedStagedReactorFactory;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.packageadmin.PackageAdmin;
+
+/**
+ * Redeploys a provider bundle repeatedly and checks that the delegation bundle does not keep the classloaders of the
+ * uninstalled revisions reachable.
+ *
+ * The number of redeployments can be set using the system property "delegation.leak.redeploys". It is not part of
+ * the regular test run.
+ */
+@RunWith(JUnit4TestRunner.class)
+@ExamReactorStrategy(AllConfinedStagedReactorFactory.class)
+public class ClassLoaderLeakBenchmark {
+
+    private static final int CLASSES_PER_BUNDLE = 20;
+    private static final long TIMEOUT = 60000L;
+
+    @Inject
+    private BundleContext bundleContext;
+
+    @Configuration
+    public Option[] config() {
+        return options(
+            mavenBundle().groupId("org.ops4j.pax.tinybundles").artifactId("tinybundles").versionAsInProject(),
+            mavenBundle().groupId("org.openengsb.labs.delegation").artifactId("org.openengsb.labs.delegation.service")
+                .versionAsInProject(),
+            junitBundles());
+    }
+
+    @Test
+    public void redeployProviders_shouldLeaveUninstalledClassLoadersCollectable() throws Exception {
+        int redeploys = Integer.getInteger("delegation.leak.redeploys", 10);
+        ProviderBundleGenerator generator = new ProviderBundleGenerator().withClassesPerBundle(CLASSES_PER_BUNDLE);
+        List<WeakReference<ClassLoader>> classLoaders = new ArrayList<WeakReference<ClassLoader>>();
+        long metaspaceBefore = -1;
+        for (int i = 0; i < redeploys; i++) {
+            Bundle bundle = bundleContext.installBundle("test://generated/leak.jar", generator.createBundle(0).build());
+            bundle.start();
+            ProviderBundleGenerator.waitForProviders(bundleContext, 1, TIMEOUT);
+            classLoaders.add(new WeakReference<ClassLoader>(useProvidedClasses()));
+            bundle.uninstall();
+            refreshPackages(bundle);
+            if (i == 0) {
+                MemoryMeasurement.collectGarbage();
+                metaspaceBefore = MemoryMeasurement.getMetaspaceUsage();
+            }
+        }
+
+        int reachable = classLoaders.size();
+        for (int i = 0; i < 10 && reachable > 0; i++) {
+            MemoryMeasurement.collectGarbage();
+            reachable = 0;
+            for (WeakReference<ClassLoader> classLoader : classLoaders) {
+                if (classLoader.get() != null) {
+                    reachable++;
+                }
+            }
+        }
+        long metaspaceGrowth = MemoryMeasurement.getMetaspaceUsage() - metaspaceBefore;
+        assertTrue(String.format("%d of %d uninstalled provider classloaders are still reachable, metaspace grew by %d"
+                + " bytes", reachable, redeploys, metaspaceGrowth), reachable == 0);
+    }
+
+    /**
+     * uses the provided classes through all caching parts of the delegation bundle and returns their classloader
+     */
+    private ClassLoader useProvidedClasses() throws Exception {
+        DelegatedClassLoadingHelper helper = new DelegatedClassLoadingHelper(bundleContext);
+        Class<?> providedClass = null;
+        for (int i = 0; i < CLASSES_PER_BUNDLE; i++) {
+            providedClass = helper.loadClass(ProviderBundleGenerator.getClassName(0, i));
+            BeanProperties.getPropertyNames(providedClass);
+        }
+        DelegationUtil.findSubtypes(Object.class.getName(), null);
+        return providedClass.getClassLoader();
+    }
+
+    private void refreshPackages(Bundle bundle) throws InterruptedException {
+        ServiceReference reference = bundleContext.getServiceReference(PackageAdmin.class.getName());
+        PackageAdmin packageAdmin = (PackageAdmin) bundleContext.getService(reference);
+        final CountDownLatch refreshed = new CountDownLatch(1);
+        FrameworkListener listener = new FrameworkListener() {
+            @Override
+            public void frameworkEvent(FrameworkEvent event) {
+                if (event.getType() == FrameworkEvent.PACKAGES_REFRESHED) {
+                    refreshed.countDown();
+                }
+            }
+        };
+        bundleContext.addFrameworkListener(listener);
+        try {
+            packageAdmin.refreshPackages(new Bundle[]{ bundle });
+            assertTrue("packages were not refreshed", refreshed.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        } finally {
+            bundleContext.removeFrameworkListener(listener);
+            bundleContext.ungetService(reference);
+        }
+    }
+
+}
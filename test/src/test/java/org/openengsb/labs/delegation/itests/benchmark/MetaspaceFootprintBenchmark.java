@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.labs.delegation.itests.benchmark;
+
+import static org.junit.Assert.assertTrue;
+import static org.ops4j.pax.exam.CoreOptions.junitBundles;
+import static org.ops4j.pax.exam.CoreOptions.mavenBundle;
+import static org.ops4j.pax.exam.CoreOptions.options;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openengsb.labs.delegation.service.DelegatedClassLoadingHelper;
+import org.ops4j.pax.exam.Option;
+import org.ops4j.pax.exam.junit.Configuration;
+import org.ops4j.pax.exam.junit.ExamReactorStrategy;
+import org.ops4j.pax.exam.junit.JUnit4TestRunner;
+import org.ops4j.pax.exam.spi.reactors.AllConfinedStagedReactorFactory;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Checks that registering providers does not define their classes up front.
+ *
+ * The budget is given in bytes of class metadata per provided class and can be overridden using the system property
+ * "delegation.footprint.budget.metaspacePerProvidedClass". It is not part of the regular test run.
+ */
+@RunWith(JUnit4TestRunner.class)
+@ExamReactorStrategy(AllConfinedStagedReactorFactory.class)
+public class MetaspaceFootprintBenchmark {
+
+    private static final int BUNDLE_COUNT = 50;
+    private static final int CLASSES_PER_BUNDLE = 100;
+    private static final long REGISTRATION_TIMEOUT = 60000L;
+
+    @Inject
+    private BundleContext bundleContext;
+
+    @Configuration
+    public Option[] config() {
+        return options(
+            mavenBundle().groupId("org.ops4j.pax.tinybundles").artifactId("tinybundles").versionAsInProject(),
+            mavenBundle().groupId("org.openengsb.labs.delegation").artifactId("org.openengsb.labs.delegation.service")
+                .versionAsInProject(),
+            junitBundles());
+    }
+
+    @Test
+    public void registerProvidersViaHeader_shouldNotGrowMetaspacePerProvidedClass() throws Exception {
+        Assume.assumeTrue(MemoryMeasurement.getMetaspaceUsage() >= 0);
+        ProviderBundleGenerator generator = new ProviderBundleGenerator().withClassesPerBundle(CLASSES_PER_BUNDLE);
+
+        // warm up the code paths involved in registration and lookup
+        bundleContext.installBundle("test://generated/0.jar", generator.createBundle(0).build()).start();
+        ProviderBundleGenerator.waitForProviders(bundleContext, 1, REGISTRATION_TIMEOUT);
+        new DelegatedClassLoadingHelper(bundleContext).loadClass(ProviderBundleGenerator.getClassName(0, 0));
+
+        List<Bundle> bundles = new ArrayList<Bundle>();
+        for (int i = 1; i <= BUNDLE_COUNT; i++) {
+            bundles.add(bundleContext.installBundle("test://generated/" + i + ".jar",
+                generator.createBundle(i).build()));
+        }
+        MemoryMeasurement.collectGarbage();
+        long metaspaceBefore = MemoryMeasurement.getMetaspaceUsage();
+        for (Bundle bundle : bundles) {
+            bundle.start();
+        }
+        ProviderBundleGenerator.waitForProviders(bundleContext, BUNDLE_COUNT + 1, REGISTRATION_TIMEOUT);
+        MemoryMeasurement.collectGarbage();
+        long metaspaceDelta = MemoryMeasurement.getMetaspaceUsage() - metaspaceBefore;
+
+        long perClass = metaspaceDelta / (BUNDLE_COUNT * CLASSES_PER_BUNDLE);
+        long budget = Long.getLong("delegation.footprint.budget.metaspacePerProvidedClass", 64);
+        assertTrue(String.format("registering providers grew metaspace by %d bytes per provided class, budget is %d",
+            perClass, budget), perClass <= budget);
+    }
+
+}
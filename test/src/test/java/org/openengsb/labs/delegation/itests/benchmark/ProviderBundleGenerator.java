@@ -0,0 +1,167 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.labs.delegation.itests.benchmark;
+
+import static org.ops4j.pax.tinybundles.core.TinyBundles.bundle;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.openengsb.labs.delegation.service.ClassProvider;
+import org.ops4j.pax.tinybundles.core.TinyBundle;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Generates provider bundles containing synthetic classes and resources.
+ *
+ * Every bundle provides all of its classes through the Provided-Classes header. Optionally a part of the classes is
+ * annotated with {@code @Provide} in additional contexts, and resources are provided through Provided-Resources.
+ */
+public class ProviderBundleGenerator {
+
+    public static final String SYMBOLIC_NAME_PREFIX = "generated.provider";
+
+    private int classesPerBundle = 50;
+    private int annotatedClassesPerBundle = 0;
+    private int resourcesPerBundle = 0;
+    private List<String> annotationContexts = Arrays.asList("foo", "bar");
+
+    public ProviderBundleGenerator withClassesPerBundle(int classesPerBundle) {
+        this.classesPerBundle = classesPerBundle;
+        return this;
+    }
+
+    public ProviderBundleGenerator withAnnotatedClassesPerBundle(int annotatedClassesPerBundle) {
+        this.annotatedClassesPerBundle = annotatedClassesPerBundle;
+        return this;
+    }
+
+    public ProviderBundleGenerator withResourcesPerBundle(int resourcesPerBundle) {
+        this.resourcesPerBundle = resourcesPerBundle;
+        return this;
+    }
+
+    public ProviderBundleGenerator withAnnotationContexts(String... contexts) {
+        this.annotationContexts = Arrays.asList(contexts);
+        return this;
+    }
+
+    public static String getPackageName(int bundleIndex) {
+        return "generated.b" + bundleIndex;
+    }
+
+    public static String getClassName(int bundleIndex, int classIndex) {
+        return getPackageName(bundleIndex) + ".Class" + classIndex;
+    }
+
+    public static String getSymbolicName(int bundleIndex) {
+        return SYMBOLIC_NAME_PREFIX + bundleIndex;
+    }
+
+    public TinyBundle createBundle(int bundleIndex) {
+        return createBundle(bundleIndex, "1.0.0");
+    }
+
+    public TinyBundle createBundle(int bundleIndex, String version) {
+        TinyBundle tinyBundle = bundle()
+            .set(Constants.BUNDLE_SYMBOLICNAME, getSymbolicName(bundleIndex))
+            .set(Constants.BUNDLE_VERSION, version)
+            .set(Constants.IMPORT_PACKAGE, "org.openengsb.labs.delegation.service")
+            .set(org.openengsb.labs.delegation.service.Constants.PROVIDED_CLASSES_HEADER,
+                getPackageName(bundleIndex) + ".*");
+        for (int i = 0; i < classesPerBundle; i++) {
+            ClassFileWriter classFile = new ClassFileWriter(getClassName(bundleIndex, i));
+            if (i < annotatedClassesPerBundle) {
+                classFile.withProvideAnnotation(annotationContexts);
+            }
+            tinyBundle.add(classFile.getEntryName(), new ByteArrayInputStream(classFile.toByteArray()));
+        }
+        if (annotatedClassesPerBundle > 0) {
+            tinyBundle.set(org.openengsb.labs.delegation.service.Constants.DELEGATION_ANNOTATIONS_HEADER, "true");
+        }
+        if (resourcesPerBundle > 0) {
+            for (int i = 0; i < resourcesPerBundle; i++) {
+                String content = "<resource id=\"" + i + "\"/>";
+                tinyBundle.add("resources/resource" + i + ".xml", new ByteArrayInputStream(content.getBytes()));
+            }
+            tinyBundle.set(org.openengsb.labs.delegation.service.Constants.PROVIDED_RESOURCES_HEADER,
+                "resources/*.xml");
+        }
+        return tinyBundle;
+    }
+
+    /**
+     * returns the contexts a bundle created by this generator registers ClassProviders for
+     */
+    public List<String> getProvidedContexts() {
+        List<String> result = new ArrayList<String>();
+        result.add("");
+        if (annotatedClassesPerBundle > 0) {
+            result.addAll(annotationContexts);
+        }
+        return result;
+    }
+
+    /**
+     * waits until the given number of generated bundles have registered at least one ClassProvider
+     */
+    public static void waitForProviders(BundleContext bundleContext, int bundleCount, long timeout)
+        throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (countProvidingBundles(bundleContext) < bundleCount) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("providers were not registered within " + timeout
+                        + "ms, found " + countProvidingBundles(bundleContext));
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * returns the number of generated bundles that registered at least one ClassProvider
+     */
+    public static int countProvidingBundles(BundleContext bundleContext) {
+        Set<Long> bundleIds = new HashSet<Long>();
+        for (ServiceReference reference : getClassProviderReferences(bundleContext)) {
+            Bundle bundle = reference.getBundle();
+            if (bundle != null && bundle.getSymbolicName().startsWith(SYMBOLIC_NAME_PREFIX)) {
+                bundleIds.add(bundle.getBundleId());
+            }
+        }
+        return bundleIds.size();
+    }
+
+    public static ServiceReference[] getClassProviderReferences(BundleContext bundleContext) {
+        try {
+            ServiceReference[] references =
+                bundleContext.getAllServiceReferences(ClassProvider.class.getName(), null);
+            return references == null ? new ServiceReference[0] : references;
+        } catch (InvalidSyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
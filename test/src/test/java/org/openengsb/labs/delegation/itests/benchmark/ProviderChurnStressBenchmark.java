@@ -0,0 +1,298 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.labs.delegation.itests.benchmark;
+
+import static org.junit.Assert.assertTrue;
+import static org.ops4j.pax.exam.CoreOptions.junitBundles;
+import static org.ops4j.pax.exam.CoreOptions.mavenBundle;
+import static org.ops4j.pax.exam.CoreOptions.options;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.inject.Inject;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openengsb.labs.delegation.service.DelegatedClassLoadingHelper;
+import org.ops4j.pax.exam.Option;
+import org.ops4j.pax.exam.junit.Configuration;
+import org.ops4j.pax.exam.junit.ExamReactorStrategy;
+import org.ops4j.pax.exam.junit.JUnit4TestRunner;
+import org.ops4j.pax.exam.spi.reactors.AllConfinedStagedReactorFactory;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Runs lookups from many threads while provider bundles are continuously stopped, updated and reinstalled.
+ *
+ * Every provider slot carries a generation counter that is odd while the slot is being changed. A lookup is validated
+ * only if the generation was even and unchanged during the whole lookup, so the provider was stable and the returned
+ * class must be the one of its current revision.
+ *
+ * Settings (system properties with the prefix "delegation.stress."): durationSeconds, lookupThreads, bundles,
+ * classesPerBundle, lookupTimeout (ms) and output (path of the result file). It is not part of the regular test
+ * run.
+ */
+@RunWith(JUnit4TestRunner.class)
+@ExamReactorStrategy(AllConfinedStagedReactorFactory.class)
+public class ProviderChurnStressBenchmark {
+
+    private static final String PROPERTY_PREFIX = "delegation.stress.";
+    private static final int MAX_SAMPLES_PER_THREAD = 100000;
+
+    @Inject
+    private BundleContext bundleContext;
+
+    private int bundleCount;
+    private int classesPerBundle;
+    private ProviderBundleGenerator generator;
+    private AtomicReferenceArray<Bundle> slots;
+    private AtomicLongArray generations;
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong validatedLookups = new AtomicLong();
+    private final AtomicLong staleClasses = new AtomicLong();
+    private final AtomicLong unexpectedMisses = new AtomicLong();
+    private final AtomicLong racingMisses = new AtomicLong();
+    private final AtomicLong churnOperations = new AtomicLong();
+    private final AtomicReference<Throwable> churnFailure = new AtomicReference<Throwable>();
+
+    private volatile boolean running = true;
+
+    @Configuration
+    public Option[] config() {
+        return options(
+            mavenBundle().groupId("org.ops4j.pax.tinybundles").artifactId("tinybundles").versionAsInProject(),
+            mavenBundle().groupId("org.openengsb.labs.delegation").artifactId("org.openengsb.labs.delegation.service")
+                .versionAsInProject(),
+            junitBundles());
+    }
+
+    @Test
+    public void lookupsDuringProviderChurn_shouldNeverReturnStaleClasses() throws Exception {
+        long duration = TimeUnit.SECONDS.toNanos(getSetting("durationSeconds", 10));
+        int threadCount = getSetting("lookupThreads", 8);
+        bundleCount = getSetting("bundles", 4);
+        classesPerBundle = getSetting("classesPerBundle", 20);
+        long lookupTimeout = getSetting("lookupTimeout", 5000);
+        generator = new ProviderBundleGenerator().withClassesPerBundle(classesPerBundle);
+        slots = new AtomicReferenceArray<Bundle>(bundleCount);
+        generations = new AtomicLongArray(bundleCount);
+        for (int i = 0; i < bundleCount; i++) {
+            slots.set(i, installProvider(i, 0));
+        }
+
+        List<LookupThread> lookupThreads = new ArrayList<LookupThread>();
+        CountDownLatch startSignal = new CountDownLatch(1);
+        for (int i = 0; i < threadCount; i++) {
+            LookupThread thread = new LookupThread(startSignal, lookupTimeout, i);
+            lookupThreads.add(thread);
+            thread.start();
+        }
+        Thread churnThread = new Thread(new Churn(), "provider-churn");
+        churnThread.start();
+        long start = System.nanoTime();
+        startSignal.countDown();
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(duration));
+        running = false;
+        churnThread.join();
+        for (LookupThread thread : lookupThreads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long[] latencies = collectLatencies(lookupThreads);
+        BenchmarkResults results = new BenchmarkResults()
+            .put("lookupThreads", threadCount)
+            .put("bundles", bundleCount)
+            .put("churnOperations", churnOperations.get())
+            .put("lookups", lookups.get())
+            .put("throughputPerSecond", lookups.get() * TimeUnit.SECONDS.toNanos(1) / elapsed)
+            .put("latencyP50Micros", percentileMicros(latencies, 50))
+            .put("latencyP99Micros", percentileMicros(latencies, 99))
+            .put("latencyP999Micros", percentileMicros(latencies, 99.9))
+            .put("latencyMaxMicros", percentileMicros(latencies, 100))
+            .put("validatedLookups", validatedLookups.get())
+            .put("racingMisses", racingMisses.get())
+            .put("unexpectedMisses", unexpectedMisses.get())
+            .put("staleClasses", staleClasses.get());
+        results.writeTo(System.getProperty(PROPERTY_PREFIX + "output", "target/churn-stress.json"));
+
+        assertTrue("churn failed: " + churnFailure.get(), churnFailure.get() == null);
+        assertTrue("no lookup could be validated", validatedLookups.get() > 0);
+        assertTrue(staleClasses.get() + " lookups returned classes of outdated revisions", staleClasses.get() == 0);
+        assertTrue(unexpectedMisses.get() + " lookups failed while their provider was stable",
+            unexpectedMisses.get() == 0);
+    }
+
+    private Bundle installProvider(int slot, long generation) throws Exception {
+        Bundle bundle = bundleContext.installBundle("test://churn/" + slot + "/" + generation + ".jar",
+            generator.createBundle(slot, "1.0." + generation).build());
+        bundle.start();
+        return bundle;
+    }
+
+    private class Churn implements Runnable {
+        @Override
+        public void run() {
+            Random random = new Random();
+            long operation = 0;
+            while (running) {
+                int slot = random.nextInt(bundleCount);
+                generations.incrementAndGet(slot);
+                try {
+                    Bundle bundle = slots.get(slot);
+                    switch ((int) (operation % 3)) {
+                        case 0:
+                            bundle.stop();
+                            bundle.start();
+                            break;
+                        case 1:
+                            bundle.update(generator.createBundle(slot, "1.0." + operation).build());
+                            break;
+                        default:
+                            bundle.uninstall();
+                            slots.set(slot, installProvider(slot, operation));
+                            break;
+                    }
+                } catch (Exception e) {
+                    churnFailure.compareAndSet(null, e);
+                    running = false;
+                } finally {
+                    generations.incrementAndGet(slot);
+                }
+                operation++;
+                churnOperations.incrementAndGet();
+                Thread.yield();
+            }
+        }
+    }
+
+    private class LookupThread extends Thread {
+        private final CountDownLatch startSignal;
+        private final DelegatedClassLoadingHelper helper;
+        private final Random random;
+        private final long[] samples = new long[MAX_SAMPLES_PER_THREAD];
+        private int sampleCount;
+
+        public LookupThread(CountDownLatch startSignal, long lookupTimeout, int index) {
+            super("churn-lookup-" + index);
+            this.startSignal = startSignal;
+            this.random = new Random(index);
+            helper = new DelegatedClassLoadingHelper(bundleContext);
+            helper.setTimeout(lookupTimeout);
+        }
+
+        @Override
+        public void run() {
+            try {
+                startSignal.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            while (running) {
+                int slot = random.nextInt(bundleCount);
+                String name = ProviderBundleGenerator.getClassName(slot, random.nextInt(classesPerBundle));
+                long generationBefore = generations.get(slot);
+                long start = System.nanoTime();
+                Class<?> result = null;
+                try {
+                    result = helper.loadClass(name);
+                } catch (ClassNotFoundException e) {
+                    // validated below
+                }
+                record(System.nanoTime() - start);
+                lookups.incrementAndGet();
+                boolean stable = generationBefore % 2 == 0;
+                Class<?> current = null;
+                if (stable && result != null) {
+                    current = loadFromCurrentRevision(slot, name);
+                }
+                if (!stable || generations.get(slot) != generationBefore) {
+                    if (result == null) {
+                        racingMisses.incrementAndGet();
+                    }
+                    continue;
+                }
+                validatedLookups.incrementAndGet();
+                if (result == null) {
+                    unexpectedMisses.incrementAndGet();
+                } else if (result != current) {
+                    staleClasses.incrementAndGet();
+                }
+            }
+        }
+
+        private Class<?> loadFromCurrentRevision(int slot, String name) {
+            try {
+                return slots.get(slot).loadClass(name);
+            } catch (ClassNotFoundException e) {
+                return null;
+            } catch (IllegalStateException e) {
+                // bundle was uninstalled concurrently, the generation check will discard this lookup
+                return null;
+            }
+        }
+
+        private void record(long nanos) {
+            if (sampleCount < samples.length) {
+                samples[sampleCount++] = nanos;
+            } else {
+                samples[random.nextInt(samples.length)] = nanos;
+            }
+        }
+    }
+
+    private static long[] collectLatencies(List<LookupThread> threads) {
+        int total = 0;
+        for (LookupThread thread : threads) {
+            total += thread.sampleCount;
+        }
+        long[] result = new long[total];
+        int offset = 0;
+        for (LookupThread thread : threads) {
+            System.arraycopy(thread.samples, 0, result, offset, thread.sampleCount);
+            offset += thread.sampleCount;
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static long percentileMicros(long[] sortedLatencies, double percentile) {
+        if (sortedLatencies.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(sortedLatencies.length * percentile / 100.0) - 1;
+        index = Math.max(0, Math.min(sortedLatencies.length - 1, index));
+        return TimeUnit.NANOSECONDS.toMicros(sortedLatencies[index]);
+    }
+
+    private static int getSetting(String name, int defaultValue) {
+        return Integer.getInteger(PROPERTY_PREFIX + name, defaultValue);
+    }
+
+}
@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.labs.delegation.itests.benchmark;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertThat;
+import static org.ops4j.pax.exam.CoreOptions.junitBundles;
+import static org.ops4j.pax.exam.CoreOptions.mavenBundle;
+import static org.ops4j.pax.exam.CoreOptions.options;
+
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openengsb.labs.delegation.service.DelegatedClassLoadingHelper;
+import org.ops4j.pax.exam.Option;
+import org.ops4j.pax.exam.junit.Configuration;
+import org.ops4j.pax.exam.junit.ExamReactorStrategy;
+import org.ops4j.pax.exam.junit.JUnit4TestRunner;
+import org.ops4j.pax.exam.spi.reactors.AllConfinedStagedReactorFactory;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Installs a large number of generated provider bundles and measures how long it takes until all of them are
+ * registered as ClassProviders, the memory used afterwards and the latency of the first lookups.
+ *
+ * Not part of the regular test run. Start it with
+ *
+ * <pre>
+ * mvn test -Dtest=StartupMacroBenchmark -Ddelegation.benchmark.bundles=500
+ * </pre>
+ *
+ * Settings (system properties with the prefix "delegation.benchmark."): bundles, classesPerBundle,
+ * annotatedClassesPerBundle, resourcesPerBundle and output (path of the result file, one JSON object is appended per
+ * run).
+ */
+@RunWith(JUnit4TestRunner.class)
+@ExamReactorStrategy(AllConfinedStagedReactorFactory.class)
+public class StartupMacroBenchmark {
+
+    private static final String PROPERTY_PREFIX = "delegation.benchmark.";
+    private static final long REGISTRATION_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+
+    @Inject
+    private BundleContext bundleContext;
+
+    @Configuration
+    public Option[] config() {
+        return options(
+            mavenBundle().groupId("org.ops4j.pax.tinybundles").artifactId("tinybundles").versionAsInProject(),
+            mavenBundle().groupId("org.openengsb.labs.delegation").artifactId("org.openengsb.labs.delegation.service")
+                .versionAsInProject(),
+            junitBundles());
+    }
+
+    @Test
+    public void startHundredsOfProviders_shouldRegisterAllProviders() throws Exception {
+        int bundleCount = getSetting("bundles", 200);
+        ProviderBundleGenerator generator = new ProviderBundleGenerator()
+            .withClassesPerBundle(getSetting("classesPerBundle", 50))
+            .withAnnotatedClassesPerBundle(getSetting("annotatedClassesPerBundle", 5))
+            .withResourcesPerBundle(getSetting("resourcesPerBundle", 5));
+        BenchmarkResults results = new BenchmarkResults();
+        results.put("bundles", bundleCount);
+        results.put("classesPerBundle", getSetting("classesPerBundle", 50));
+        results.put("annotatedClassesPerBundle", getSetting("annotatedClassesPerBundle", 5));
+        results.put("resourcesPerBundle", getSetting("resourcesPerBundle", 5));
+
+        List<Bundle> bundles = new ArrayList<Bundle>();
+        for (int i = 0; i < bundleCount; i++) {
+            bundles.add(bundleContext.installBundle("test://generated/" + i + ".jar",
+                generator.createBundle(i).build()));
+        }
+        MemoryMeasurement.collectGarbage();
+        long heapBefore = MemoryMeasurement.getUsedMemory(MemoryType.HEAP);
+        long nonHeapBefore = MemoryMeasurement.getUsedMemory(MemoryType.NON_HEAP);
+
+        long start = System.nanoTime();
+        for (Bundle bundle : bundles) {
+            bundle.start();
+        }
+        long started = System.nanoTime();
+        ProviderBundleGenerator.waitForProviders(bundleContext, bundleCount, REGISTRATION_TIMEOUT);
+        long registered = System.nanoTime();
+        results.put("startMillis", toMillis(started - start));
+        results.put("timeToAllProvidersRegisteredMillis", toMillis(registered - start));
+
+        DelegatedClassLoadingHelper helper = new DelegatedClassLoadingHelper(bundleContext);
+        String lastClass = ProviderBundleGenerator.getClassName(bundleCount - 1, 0);
+        long lookupStart = System.nanoTime();
+        Class<?> loadedClass = helper.loadClass(lastClass);
+        long firstLookup = System.nanoTime() - lookupStart;
+        lookupStart = System.nanoTime();
+        helper.loadClass(lastClass);
+        long secondLookup = System.nanoTime() - lookupStart;
+        assertThat(loadedClass, notNullValue());
+        results.put("firstLookupMicros", TimeUnit.NANOSECONDS.toMicros(firstLookup));
+        results.put("secondLookupMicros", TimeUnit.NANOSECONDS.toMicros(secondLookup));
+
+        MemoryMeasurement.collectGarbage();
+        results.put("heapUsedDeltaBytes", MemoryMeasurement.getUsedMemory(MemoryType.HEAP) - heapBefore);
+        results.put("nonHeapUsedDeltaBytes", MemoryMeasurement.getUsedMemory(MemoryType.NON_HEAP) - nonHeapBefore);
+        results.put("metaspaceUsedBytes", MemoryMeasurement.getMetaspaceUsage());
+        results.put("classProviders", ProviderBundleGenerator.getClassProviderReferences(bundleContext).length);
+
+        results.writeTo(System.getProperty(PROPERTY_PREFIX + "output", "target/startup-benchmark.json"));
+        assertThat(ProviderBundleGenerator.countProvidingBundles(bundleContext), is(bundleCount));
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1000000.0;
+    }
+
+    private static int getSetting(String name, int defaultValue) {
+        return Integer.getInteger(PROPERTY_PREFIX + name, defaultValue);
+    }
+
+}